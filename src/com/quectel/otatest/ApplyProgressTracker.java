@@ -0,0 +1,266 @@
+package com.quectel.otatest;
+
+import android.os.UpdateEngine;
+import android.util.Log;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Turns update_engine status callbacks into one overall progress with an ETA.
+ *
+ * update_engine reports each phase from 0 to 1: DOWNLOADING (writing the payload operations),
+ * VERIFYING (hashing the written partitions) and FINALIZING (postinstall). Each phase gets a
+ * weight in the overall percentage, learned from earlier installations in {@link ApplyTimings}
+ * where available. The ETA extrapolates the current phase from its observed throughput and adds
+ * the predicted duration of the phases after it. Phase durations are recorded into
+ * {@link ApplyTimings} when the payload was applied successfully.
+ *
+ * Events are delivered on the given executor, coalesced as in {@link ProgressPublisher}.
+ */
+public class ApplyProgressTracker implements UpdateEngineListener {
+    private static final String TAG = "ApplyProgressTracker";
+    /** Progress a phase must make before its duration is extrapolated from it. */
+    private static final float MIN_EXTRAPOLATION_PROGRESS = 0.02f;
+    /** A phase first seen at or below this progress is timed as observed from its start. */
+    private static final float STARTED_PROGRESS = 0.01f;
+    
+    public enum Phase {
+        DOWNLOADING(UpdateEngine.UpdateStatusConstants.DOWNLOADING, "Writing", 0.70),
+        VERIFYING(UpdateEngine.UpdateStatusConstants.VERIFYING, "Verifying", 0.10),
+        FINALIZING(UpdateEngine.UpdateStatusConstants.FINALIZING, "Finalizing", 0.20);
+        
+        final int status;
+        public final String label;
+        final double defaultWeight;
+        
+        Phase(int status, String label, double defaultWeight) {
+            this.status = status;
+            this.label = label;
+            this.defaultWeight = defaultWeight;
+        }
+        
+        static Phase of(int status) {
+            for (Phase phase : values()) {
+                if (phase.status == status) {
+                    return phase;
+                }
+            }
+            return null;
+        }
+    }
+    
+    private final long payloadSize;
+    private final ApplyTimings timings;
+    private final Executor executor;
+    private final ProgressPublisher.Listener listener;
+    private final LongSupplier clock;
+    private final Map<Phase, Double> weights = new EnumMap<>(Phase.class);
+    private final Map<Phase, Long> durations = new EnumMap<>(Phase.class);
+    private final AtomicReference<ProgressPublisher.Progress> pending = new AtomicReference<>();
+    
+    private Phase phase;
+    private boolean finished;
+    private boolean phaseObservedFromStart;
+    private long phaseStartTime;
+    private float phaseStartPercent;
+    private long lastUpdateTime;
+    private float lastUpdatePercent;
+    private double lastOverall;
+    
+    /**
+     * @param payloadSize size of the payload in bytes, used for throughput; -1 if unknown
+     * @param timings durations of earlier installations, or null to use the default weights only
+     */
+    public ApplyProgressTracker(long payloadSize, ApplyTimings timings, Executor executor,
+            ProgressPublisher.Listener listener) {
+        this(payloadSize, timings, executor, listener, () -> System.nanoTime() / 1000000);
+    }
+    
+    ApplyProgressTracker(long payloadSize, ApplyTimings timings, Executor executor,
+            ProgressPublisher.Listener listener, LongSupplier clock) {
+        this.payloadSize = payloadSize;
+        this.timings = timings;
+        this.executor = executor;
+        this.listener = listener;
+        this.clock = clock;
+        initWeights();
+    }
+    
+    /** Weigh the phases by how long they took before on this device, if all of them are known. */
+    private void initWeights() {
+        double total = 0;
+        Map<Phase, Long> known = new EnumMap<>(Phase.class);
+        if (timings != null) {
+            for (Phase each : Phase.values()) {
+                long ms = payloadSize > 0 ? timings.predictMs(each, payloadSize) : timings.lastMs(each);
+                if (ms > 0) {
+                    known.put(each, ms);
+                    total += ms;
+                }
+            }
+        }
+        for (Phase each : Phase.values()) {
+            weights.put(each, known.size() == Phase.values().length ? known.get(each) / total : each.defaultWeight);
+        }
+        Log.d(TAG, "Phase weights: " + weights);
+    }
+    
+    @Override
+    public void onStatusUpdate(int status, float percent) {
+        ProgressPublisher.Progress progress;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            if (status == UpdateEngine.UpdateStatusConstants.UPDATED_NEED_REBOOT) {
+                finishPhase(now);
+                finished = true;
+            } else {
+                Phase reported = Phase.of(status);
+                if (reported == null || finished) {
+                    return;
+                }
+                if (reported != phase) {
+                    if (phase != null && reported.ordinal() < phase.ordinal()) {
+                        // update_engine started over, e.g. after it was reset
+                        Log.w(TAG, "⚠ Phase went back from " + phase + " to " + reported);
+                        durations.clear();
+                        lastOverall = 0;
+                    }
+                    finishPhase(now);
+                    phase = reported;
+                    phaseObservedFromStart = percent <= STARTED_PROGRESS;
+                    phaseStartTime = now;
+                    phaseStartPercent = percent;
+                    lastUpdateTime = now;
+                    lastUpdatePercent = percent;
+                    Log.i(TAG, "update_engine phase: " + phase.label);
+                }
+            }
+            progress = snapshot(now, percent);
+        }
+        deliver(progress);
+    }
+    
+    @Override
+    public void onPayloadApplicationComplete(int errorCode) {
+        synchronized (this) {
+            finishPhase(clock.getAsLong());
+            finished = true;
+            if (errorCode == UpdateEngine.ErrorCodeConstants.SUCCESS && timings != null) {
+                timings.record(durations, payloadSize);
+            }
+        }
+    }
+    
+    /** Durations of the phases observed from start to end, in milliseconds. */
+    public synchronized Map<Phase, Long> getDurations() {
+        return new EnumMap<>(durations);
+    }
+    
+    /** The phase durations and their share of the total, for logging. */
+    public synchronized String summary() {
+        long total = 0;
+        for (long ms : durations.values()) {
+            total += ms;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Phase, Long> entry : durations.entrySet()) {
+            builder.append(entry.getKey()).append(' ').append(String.format("%.1fs", entry.getValue() / 1000.0))
+                    .append(" (").append(total > 0 ? entry.getValue() * 100 / total : 0).append("%), ");
+        }
+        return builder.append("total ").append(String.format("%.1fs", total / 1000.0)).toString();
+    }
+    
+    private void finishPhase(long now) {
+        if (phase == null) {
+            return;
+        }
+        if (phaseObservedFromStart) {
+            durations.put(phase, now - phaseStartTime);
+        }
+        Log.i(TAG, "✓ Phase " + phase.label + " done in " + (now - phaseStartTime) + "ms"
+                + (phaseObservedFromStart ? "" : " (joined halfway, not recorded)"));
+        phase = null;
+    }
+    
+    private ProgressPublisher.Progress snapshot(long now, float percent) {
+        double overall = 1;
+        long instantRate = -1;
+        long averageRate = -1;
+        long eta = 0;
+        if (!finished) {
+            overall = weights.get(phase) * percent;
+            for (Phase earlier : Phase.values()) {
+                if (earlier.ordinal() < phase.ordinal()) {
+                    overall += weights.get(earlier);
+                }
+            }
+            long sinceUpdate = now - lastUpdateTime;
+            if (payloadSize > 0 && sinceUpdate > 0) {
+                instantRate = (long) ((percent - lastUpdatePercent) * payloadSize * 1000 / sinceUpdate);
+                lastUpdateTime = now;
+                lastUpdatePercent = percent;
+            }
+            long phaseElapsed = now - phaseStartTime;
+            if (payloadSize > 0 && phaseElapsed > 0) {
+                averageRate = (long) ((percent - phaseStartPercent) * payloadSize * 1000 / phaseElapsed);
+            }
+            eta = estimateRemainingMs(phaseElapsed, percent);
+        }
+        // The weights are estimates; never let the bar move backwards within one run
+        lastOverall = Math.max(lastOverall, Math.min(1, overall));
+        int overallPercent = (int) (lastOverall * 100);
+        long total = payloadSize > 0 ? payloadSize : 100;
+        return new ProgressPublisher.Progress((long) (lastOverall * total), total, overallPercent,
+                instantRate, averageRate, eta, finished ? null : phase.label);
+    }
+    
+    /**
+     * Remaining time of the current phase at its observed rate, plus the predicted duration of the
+     * phases after it: from earlier installations, or else scaled from the current phase by weight.
+     */
+    private long estimateRemainingMs(long phaseElapsed, float percent) {
+        double done = percent - phaseStartPercent;
+        long phaseMs;
+        if (done >= MIN_EXTRAPOLATION_PROGRESS && phaseElapsed > 0) {
+            phaseMs = (long) (phaseElapsed / done);
+        } else {
+            phaseMs = timings != null ? timings.predictMs(phase, payloadSize) : -1;
+            if (phaseMs < 0) {
+                // Just started and never timed before: scale a phase that finished in this run
+                for (Map.Entry<Phase, Long> entry : durations.entrySet()) {
+                    phaseMs = (long) (entry.getValue() * weights.get(phase) / weights.get(entry.getKey()));
+                }
+            }
+            if (phaseMs < 0) {
+                return -1;
+            }
+        }
+        long remaining = (long) (phaseMs * (1 - percent));
+        for (Phase later : Phase.values()) {
+            if (later.ordinal() <= phase.ordinal()) {
+                continue;
+            }
+            long predicted = timings != null ? timings.predictMs(later, payloadSize) : -1;
+            if (predicted < 0) {
+                predicted = (long) (phaseMs * weights.get(later) / weights.get(phase));
+            }
+            remaining += predicted;
+        }
+        return remaining;
+    }
+    
+    private void deliver(ProgressPublisher.Progress progress) {
+        if (pending.getAndSet(progress) == null) {
+            executor.execute(() -> {
+                ProgressPublisher.Progress latest = pending.getAndSet(null);
+                if (latest != null) {
+                    listener.onProgress(latest);
+                }
+            });
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,147 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * How long each update_engine phase took on this device, kept across installations.
+ *
+ * Durations are stored per MiB of payload, so packages of different sizes are comparable, and
+ * averaged over the last installs. {@link ApplyProgressTracker} uses them to weight the phases in
+ * the overall percentage and to predict phases that have not started yet. Only phases that were
+ * observed from start to end are recorded; a phase picked up halfway after a restart would
+ * understate its duration.
+ */
+public final class ApplyTimings {
+    private static final String TAG = "ApplyTimings";
+    private static final String STATE_PATH = "/data/ota_package/.apply_timings";
+    private static final int VERSION = 1;
+    /** Weight of the newest sample in the running average. */
+    private static final double SMOOTHING = 0.5;
+    private static final double MIB = 1024.0 * 1024.0;
+    
+    private static ApplyTimings instance;
+    
+    private final File stateFile;
+    private final Map<ApplyProgressTracker.Phase, Double> msPerMib = new EnumMap<>(ApplyProgressTracker.Phase.class);
+    private final Map<ApplyProgressTracker.Phase, Long> lastMs = new EnumMap<>(ApplyProgressTracker.Phase.class);
+    private final Map<ApplyProgressTracker.Phase, Integer> samples = new EnumMap<>(ApplyProgressTracker.Phase.class);
+    
+    ApplyTimings(File stateFile) {
+        this.stateFile = stateFile;
+        load();
+    }
+    
+    public static synchronized ApplyTimings getInstance() {
+        if (instance == null) {
+            instance = new ApplyTimings(new File(STATE_PATH));
+        }
+        return instance;
+    }
+    
+    /** Predicted duration of {@code phase} for a payload of {@code payloadSize} bytes, or -1 if unknown. */
+    public synchronized long predictMs(ApplyProgressTracker.Phase phase, long payloadSize) {
+        Double rate = msPerMib.get(phase);
+        if (rate == null || payloadSize <= 0) {
+            return -1;
+        }
+        return (long) (rate * payloadSize / MIB);
+    }
+    
+    /** Duration of {@code phase} in the last installation that observed it, or -1. */
+    public synchronized long lastMs(ApplyProgressTracker.Phase phase) {
+        Long last = lastMs.get(phase);
+        return last != null ? last : -1;
+    }
+    
+    /** Record the phases of one installation of a {@code payloadSize} byte payload. */
+    public synchronized void record(Map<ApplyProgressTracker.Phase, Long> durations, long payloadSize) {
+        if (durations.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<ApplyProgressTracker.Phase, Long> entry : durations.entrySet()) {
+            ApplyProgressTracker.Phase phase = entry.getKey();
+            lastMs.put(phase, entry.getValue());
+            if (payloadSize <= 0) {
+                continue;
+            }
+            double rate = entry.getValue() * MIB / payloadSize;
+            Double previous = msPerMib.get(phase);
+            msPerMib.put(phase, previous == null ? rate : SMOOTHING * rate + (1 - SMOOTHING) * previous);
+            samples.merge(phase, 1, Integer::sum);
+        }
+        save();
+        Log.d(TAG, "Recorded " + durations + " for " + payloadSize + " bytes: " + this);
+    }
+    
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("ApplyTimings{");
+        for (ApplyProgressTracker.Phase phase : ApplyProgressTracker.Phase.values()) {
+            Double rate = msPerMib.get(phase);
+            builder.append(phase).append('=')
+                    .append(rate != null ? String.format("%.0fms/MiB", rate) : "unknown")
+                    .append(" (last ").append(lastMs(phase)).append("ms, ")
+                    .append(samples.getOrDefault(phase, 0)).append(" samples) ");
+        }
+        return builder.toString().trim() + "}";
+    }
+    
+    /** Restore the persisted timings; a missing, corrupt or foreign file leaves them unknown. */
+    private void load() {
+        if (stateFile == null) {
+            return;
+        }
+        Map<String, String> values = new AtomicStateFile(stateFile).readValues();
+        if (values == null) {
+            return;
+        }
+        try {
+            if (Integer.parseInt(values.get("version")) != VERSION) {
+                return;
+            }
+            for (ApplyProgressTracker.Phase phase : ApplyProgressTracker.Phase.values()) {
+                String key = phase.name().toLowerCase();
+                if (values.containsKey(key + "_ms_per_mib")) {
+                    msPerMib.put(phase, Double.parseDouble(values.get(key + "_ms_per_mib")));
+                    samples.put(phase, Integer.parseInt(values.get(key + "_samples")));
+                }
+                if (values.containsKey(key + "_last_ms")) {
+                    lastMs.put(phase, Long.parseLong(values.get(key + "_last_ms")));
+                }
+            }
+        } catch (RuntimeException e) {
+            msPerMib.clear();
+            lastMs.clear();
+            samples.clear();
+        }
+    }
+    
+    /** Persist through {@link AtomicStateFile}, like the check schedule. */
+    private void save() {
+        if (stateFile == null) {
+            return;
+        }
+        StringBuilder body = new StringBuilder("version=" + VERSION + "\n");
+        for (ApplyProgressTracker.Phase phase : ApplyProgressTracker.Phase.values()) {
+            String key = phase.name().toLowerCase();
+            if (msPerMib.containsKey(phase)) {
+                body.append(key).append("_ms_per_mib=").append(msPerMib.get(phase)).append('\n');
+                body.append(key).append("_samples=").append(samples.get(phase)).append('\n');
+            }
+            if (lastMs.containsKey(phase)) {
+                body.append(key).append("_last_ms=").append(lastMs.get(phase)).append('\n');
+            }
+        }
+        try {
+            new AtomicStateFile(stateFile).write(body.toString());
+        } catch (IOException e) {
+            // The next install falls back to the previous or default weights
+            Log.w(TAG, "Failed to save apply timings: " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file
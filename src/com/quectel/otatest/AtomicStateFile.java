@@ -0,0 +1,133 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A small line-based state file that is replaced atomically and checked when read.
+ *
+ * {@link #write} appends a {@code crc=} line with the CRC32 of the body, writes everything to a
+ * temp file next to the target, fsyncs it and renames it over the target, so a reader sees either
+ * the old or the new content. A file that is missing, unreadable or fails its CRC reads as null.
+ */
+final class AtomicStateFile {
+    private static final String TAG = "AtomicStateFile";
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final String CRC_PREFIX = "crc=";
+    
+    private final File file;
+    
+    AtomicStateFile(File file) {
+        this.file = file;
+    }
+    
+    File getFile() {
+        return file;
+    }
+    
+    /**
+     * The body lines, without the checksum line.
+     * @return the lines, or null if the file is missing, unreadable or corrupt
+     */
+    List<String> read() {
+        if (!file.exists()) {
+            return null;
+        }
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read " + file + ": " + e.getMessage());
+            return null;
+        }
+        
+        int last = lines.size() - 1;
+        String body = last > 0 ? String.join("\n", lines.subList(0, last)) + "\n" : "";
+        if (last < 0 || !lines.get(last).startsWith(CRC_PREFIX)
+                || !lines.get(last).substring(CRC_PREFIX.length()).equals(checksum(body))) {
+            Log.w(TAG, file + " is torn or corrupt, ignoring it");
+            return null;
+        }
+        return new ArrayList<>(lines.subList(0, last));
+    }
+    
+    /**
+     * The body as {@code key=value} lines; a repeated key keeps its last value.
+     * @return the values, or null if the file is missing, unreadable or corrupt
+     */
+    Map<String, String> readValues() {
+        List<String> lines = read();
+        if (lines == null) {
+            return null;
+        }
+        Map<String, String> values = new HashMap<>();
+        for (String line : lines) {
+            int split = line.indexOf('=');
+            if (split > 0) {
+                values.put(line.substring(0, split), line.substring(split + 1));
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * Replace the file with {@code body}, a sequence of lines each ending in a newline, followed
+     * by its checksum.
+     * @throws IOException if the new content was not committed; the old content is then kept
+     */
+    void write(String body) throws IOException {
+        replace(file, body + CRC_PREFIX + checksum(body) + "\n");
+    }
+    
+    void delete() {
+        file.delete();
+        new File(file.getPath() + TEMP_SUFFIX).delete();
+    }
+    
+    /**
+     * Replace {@code target} with {@code content} through an fsynced temp file and an atomic
+     * rename, for files that carry their own integrity checks.
+     */
+    static void replace(File target, String content) throws IOException {
+        File parent = target.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        File tempFile = new File(target.getPath() + TEMP_SUFFIX);
+        try {
+            try (FileOutputStream output = new FileOutputStream(tempFile)) {
+                output.write(content.getBytes(StandardCharsets.UTF_8));
+                output.getFD().sync();
+            }
+            if (!tempFile.renameTo(target)) {
+                throw new IOException("Failed to commit " + target);
+            }
+        } catch (IOException e) {
+            tempFile.delete();
+            throw e;
+        }
+    }
+    
+    /** CRC32 of {@code text} as hex. */
+    static String checksum(String text) {
+        CRC32 crc = new CRC32();
+        crc.update(text.getBytes(StandardCharsets.UTF_8));
+        return Long.toHexString(crc.getValue());
+    }
+}
\ No newline at end of file
@@ -0,0 +1,155 @@
+package com.quectel.otatest;
+
+import android.os.Build;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Build properties read in process, replacing {@code getprop} forks.
+ *
+ * On a device the values come from android.os.SystemProperties. Where that is not available,
+ * e.g. when the code runs on a JVM off-device, build.prop-style files are parsed instead (the
+ * files named by {@code ota.build_prop_files}, separated by ':', or the system, vendor and product
+ * build.prop). The read-only properties cannot change while the process lives, so they are read
+ * once into a {@link Snapshot}.
+ */
+public final class BuildProperties {
+    private static final String TAG = "BuildProperties";
+    private static final String[] DEFAULT_PROP_FILES = {
+            "/system/build.prop", "/vendor/build.prop", "/product/build.prop"};
+    
+    private static volatile Snapshot snapshot;
+    
+    private BuildProperties() {
+    }
+    
+    /** The build properties sent with an update check. Empty strings stand for unset properties. */
+    public static final class Snapshot {
+        public final String buildId;
+        public final String fingerprint;
+        public final String device;
+        /** A/B slot the device booted from, e.g. "_a", or empty on non-A/B devices. */
+        public final String slotSuffix;
+        
+        Snapshot(String buildId, String fingerprint, String device, String slotSuffix) {
+            this.buildId = buildId;
+            this.fingerprint = fingerprint;
+            this.device = device;
+            this.slotSuffix = slotSuffix;
+        }
+        
+        @Override
+        public String toString() {
+            return "buildId=" + buildId + ", fingerprint=" + fingerprint + ", device=" + device
+                    + ", slotSuffix=" + slotSuffix;
+        }
+    }
+    
+    /** The cached snapshot, read on first use. */
+    public static Snapshot get() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            synchronized (BuildProperties.class) {
+                current = snapshot;
+                if (current == null) {
+                    long startTime = System.nanoTime();
+                    current = read();
+                    snapshot = current;
+                    Log.d(TAG, "Build properties read in " + (System.nanoTime() - startTime) / 1000 + "us: " + current);
+                }
+            }
+        }
+        return current;
+    }
+    
+    private static Snapshot read() {
+        String buildId;
+        String fingerprint;
+        String device;
+        String slotSuffix;
+        try {
+            buildId = SystemProperties.get("ro.build.id", "");
+            fingerprint = SystemProperties.get("ro.build.fingerprint", "");
+            device = SystemProperties.get("ro.product.device", "");
+            slotSuffix = SystemProperties.get("ro.boot.slot_suffix", "");
+        } catch (RuntimeException | LinkageError e) {
+            // Off-device the framework class is a stub or missing
+            Log.d(TAG, "SystemProperties unavailable (" + e + "), parsing build.prop files");
+            Map<String, String> files = parseDefaultFiles();
+            buildId = valueOf(files, "ro.build.id");
+            fingerprint = valueOf(files, "ro.build.fingerprint");
+            device = valueOf(files, "ro.product.device");
+            slotSuffix = valueOf(files, "ro.boot.slot_suffix");
+        }
+        
+        if (buildId.isEmpty()) {
+            Log.w(TAG, "⚠️ ro.build.id is empty, using Build.ID: " + Build.ID);
+            buildId = Build.ID != null ? Build.ID : "";
+        }
+        if (fingerprint.isEmpty() && Build.FINGERPRINT != null) {
+            fingerprint = Build.FINGERPRINT;
+        }
+        if (device.isEmpty() && Build.DEVICE != null) {
+            device = Build.DEVICE;
+        }
+        return new Snapshot(buildId.trim(), fingerprint.trim(), device.trim(), slotSuffix.trim());
+    }
+    
+    private static String valueOf(Map<String, String> values, String key) {
+        String value = values.get(key);
+        return value != null ? value : "";
+    }
+    
+    private static Map<String, String> parseDefaultFiles() {
+        String configured = System.getProperty("ota.build_prop_files");
+        String[] paths = configured != null ? configured.split(":") : DEFAULT_PROP_FILES;
+        Map<String, String> values = new HashMap<>();
+        for (String path : paths) {
+            File file = new File(path);
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                for (Map.Entry<String, String> entry : parse(file).entrySet()) {
+                    values.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + path + ": " + e.getMessage());
+            }
+        }
+        return values;
+    }
+    
+    /**
+     * Parse a build.prop-style file: one {@code key=value} per line, '#' comments, and
+     * {@code import} directives, which are ignored. As with read-only properties on a device, the
+     * first definition of a key wins.
+     */
+    static Map<String, String> parse(File file) throws IOException {
+        Map<String, String> values = new HashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#") || line.startsWith("import ")) {
+                    continue;
+                }
+                int split = line.indexOf('=');
+                if (split > 0) {
+                    values.putIfAbsent(line.substring(0, split).trim(), line.substring(split + 1).trim());
+                }
+            }
+        }
+        return values;
+    }
+}
\ No newline at end of file
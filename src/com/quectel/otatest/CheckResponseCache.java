@@ -0,0 +1,173 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Persistent record of the last check-update answer per build ID, together with the validator the
+ * server sent with it (its ETag, or the response_version from the body).
+ *
+ * OTAApiClient sends the validator as If-None-Match and, on 304 Not Modified or the 412 that
+ * RFC 7232 prescribes for a POST, returns the cached response without parsing a body. Entries
+ * survive reboots so the boot-time check is conditional too. Error answers are never stored, and
+ * a corrupt entry or a new cache format drops the entry.
+ */
+class CheckResponseCache {
+    private static final String TAG = "CheckResponseCache";
+    private static final String DEFAULT_DIR = "/data/ota_package/.check_cache";
+    private static final String SUFFIX = ".entry";
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRIES = 4;
+    
+    private final File directory;
+    
+    CheckResponseCache() {
+        this(new File(DEFAULT_DIR));
+    }
+    
+    CheckResponseCache(File directory) {
+        this.directory = directory;
+    }
+    
+    /** A cached answer and the validator to revalidate it with. */
+    static class Entry {
+        final String validator;
+        final OTAApiClient.UpdateResponse response;
+        
+        Entry(String validator, OTAApiClient.UpdateResponse response) {
+            this.validator = validator;
+            this.response = response;
+        }
+    }
+    
+    /**
+     * Look up the answer last given for {@code buildId}.
+     * @return the cached entry, or null if there is none or it is unreadable
+     */
+    synchronized Entry get(String buildId) {
+        File entryFile = entryFile(buildId);
+        Map<String, String> values = read(entryFile);
+        if (values == null) {
+            return null;
+        }
+        try {
+            if (Integer.parseInt(values.get("version")) != VERSION || !buildId.equals(values.get("build_id"))
+                    || values.get("validator") == null || values.get("status") == null) {
+                Log.i(TAG, "Dropping stale cache entry for build " + buildId);
+                entryFile.delete();
+                return null;
+            }
+            OTAApiClient.UpdateResponse response = new OTAApiClient.UpdateResponse(values.get("status"),
+                    values.get("package_url"), values.get("response_build_id"), values.get("patch_notes"),
+                    values.get("message"), values.get("sha256"), values.containsKey("next_check_seconds")
+                            ? Long.parseLong(values.get("next_check_seconds")) : -1);
+            entryFile.setLastModified(System.currentTimeMillis());
+            return new Entry(values.get("validator"), response);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Dropping unusable cache entry " + entryFile + ": " + e.getMessage());
+            entryFile.delete();
+            return null;
+        }
+    }
+    
+    /** Record the answer for {@code buildId}, replacing any earlier one. */
+    synchronized void put(String buildId, String validator, OTAApiClient.UpdateResponse response) {
+        StringBuilder body = new StringBuilder();
+        body.append("version=").append(VERSION).append('\n');
+        append(body, "build_id", buildId);
+        append(body, "validator", validator);
+        append(body, "status", response.status);
+        append(body, "package_url", response.packageUrl);
+        append(body, "response_build_id", response.buildId);
+        append(body, "patch_notes", response.patchNotes);
+        append(body, "message", response.message);
+        append(body, "sha256", response.sha256);
+        if (response.nextCheckSeconds >= 0) {
+            append(body, "next_check_seconds", Long.toString(response.nextCheckSeconds));
+        }
+        
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            new AtomicStateFile(entryFile(buildId)).write(body.toString());
+            Log.d(TAG, "Cached check-update answer for build " + buildId + " (validator " + validator + ")");
+            trim();
+        } catch (IOException e) {
+            // The cache only saves bandwidth; checking must not fail because of it
+            Log.w(TAG, "Failed to cache check-update answer: " + e.getMessage());
+        }
+    }
+    
+    /** Forget the answer for {@code buildId}. */
+    synchronized void invalidate(String buildId) {
+        entryFile(buildId).delete();
+    }
+    
+    private void trim() {
+        File[] entries = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (entries == null || entries.length <= MAX_ENTRIES) {
+            return;
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_ENTRIES; i < entries.length; i++) {
+            Log.d(TAG, "Evicting " + entries[i].getName());
+            entries[i].delete();
+        }
+    }
+    
+    private File entryFile(String buildId) {
+        String name = StreamingDigest.hex(newDigest().digest(String.valueOf(buildId).getBytes(StandardCharsets.UTF_8)))
+                .substring(0, 16);
+        return new File(directory, name + SUFFIX);
+    }
+    
+    /** Null values are left out; backslashes and line breaks are escaped so a value stays on one line. */
+    private static void append(StringBuilder body, String key, String value) {
+        if (value == null) {
+            return;
+        }
+        body.append(key).append('=').append(value.replace("\\", "\\\\").replace("\n", "\\n")
+                .replace("\r", "\\r")).append('\n');
+    }
+    
+    private static String unescape(String value) {
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                builder.append(next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+    
+    private static Map<String, String> read(File entryFile) {
+        Map<String, String> values = new AtomicStateFile(entryFile).readValues();
+        if (values == null) {
+            // Missing, or unreadable and already logged; a broken entry is dropped
+            entryFile.delete();
+            return null;
+        }
+        values.replaceAll((key, value) -> unescape(value));
+        return values;
+    }
+    
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,182 @@
+package com.quectel.otatest;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+
+/**
+ * When the next background update check is due, and the state that decides it.
+ *
+ * The first check after boot waits a per-device delay inside the boot window. The delay comes
+ * from a hash of the device key, so a site that power-cycles many devices at once spreads their
+ * checks over the window, and a given device always takes the same slot. After a successful
+ * check the next one is due after the interval the server asked for (next_check_seconds, clamped
+ * to [15 min, 7 days]) or the default interval, plus the device's slot within the first 10% of
+ * that interval. Failed checks are retried after 5 min, doubling up to the interval.
+ *
+ * The arithmetic is plain Java with no Android dependencies, so a schedule without a state file
+ * can be exercised off-device; the state file goes through {@link AtomicStateFile}, and
+ * CheckScheduler turns the answers into alarms and reports failed writes. Times are wall-clock
+ * milliseconds; a delay is never longer than one interval plus its spread, so a clock that was
+ * wrong at the previous check cannot postpone checks indefinitely.
+ */
+class CheckSchedule {
+    static final long MIN_INTERVAL_MS = 15 * 60 * 1000L;
+    static final long MAX_INTERVAL_MS = 7 * 24 * 60 * 60 * 1000L;
+    static final long RETRY_BASE_MS = 5 * 60 * 1000L;
+    /** Share of the interval over which periodic checks of different devices are spread. */
+    private static final double SPREAD = 0.1;
+    private static final int VERSION = 1;
+    
+    private final File stateFile;
+    private final long bootWindowMs;
+    private final long defaultIntervalMs;
+    /** Position of this device in any jitter window, in [0, 1). */
+    private final double slot;
+    
+    private long lastAttemptAt;
+    private long intervalMs;
+    private int failures;
+    
+    /**
+     * @param stateFile where the schedule is persisted, or null to keep it in memory only
+     * @param deviceKey stable per-device value (e.g. the serial number) the jitter is derived from
+     */
+    CheckSchedule(File stateFile, String deviceKey, long bootWindowMs, long defaultIntervalMs) {
+        this.stateFile = stateFile;
+        this.bootWindowMs = Math.max(0, bootWindowMs);
+        this.defaultIntervalMs = clampInterval(defaultIntervalMs);
+        this.slot = slotOf(deviceKey);
+        this.intervalMs = this.defaultIntervalMs;
+        load();
+    }
+    
+    /**
+     * Map {@code deviceKey} to a fixed point in [0, 1). SHA-256 rather than CRC32, since serial
+     * numbers of one batch differ in a few characters and a CRC spreads those unevenly.
+     */
+    static double slotOf(String deviceKey) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(
+                    String.valueOf(deviceKey).getBytes(StandardCharsets.UTF_8));
+            long bits = 0;
+            for (int i = 0; i < 7; i++) {
+                bits = (bits << 8) | (hash[i] & 0xff);
+            }
+            return bits / (double) (1L << 56);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+    
+    static long clampInterval(long intervalMs) {
+        return Math.max(MIN_INTERVAL_MS, Math.min(MAX_INTERVAL_MS, intervalMs));
+    }
+    
+    /** Delay of this device's first check after boot. */
+    long bootDelayMs() {
+        return (long) (slot * bootWindowMs);
+    }
+    
+    /**
+     * How long to wait after boot: the boot delay, or longer if the last check was recent enough
+     * that the next one is not due yet.
+     */
+    synchronized long delayAfterBoot(long now) {
+        return Math.max(bootDelayMs(), delayUntilDue(now));
+    }
+    
+    /** Wall-clock time the next check is due, or 0 if no check has been attempted yet. */
+    synchronized long nextDueAt() {
+        if (lastAttemptAt <= 0) {
+            return 0;
+        }
+        if (failures > 0) {
+            long backoff = RETRY_BASE_MS << Math.min(failures - 1, 20);
+            return lastAttemptAt + Math.min(intervalMs, backoff);
+        }
+        return lastAttemptAt + intervalMs + (long) (slot * SPREAD * intervalMs);
+    }
+    
+    /** Time left until the next check is due, 0 if it is due now. */
+    synchronized long delayUntilDue(long now) {
+        long due = nextDueAt();
+        if (due <= 0) {
+            return 0;
+        }
+        long maxDelay = intervalMs + (long) (SPREAD * intervalMs);
+        return Math.max(0, Math.min(maxDelay, due - now));
+    }
+    
+    /**
+     * Record a completed check.
+     * @param serverIntervalMs the interval the server asked for, or a negative value for the default
+     * @throws IOException if the state could not be persisted; it still applies until the next boot
+     */
+    synchronized void recordSuccess(long now, long serverIntervalMs) throws IOException {
+        lastAttemptAt = now;
+        failures = 0;
+        intervalMs = serverIntervalMs >= 0 ? clampInterval(serverIntervalMs) : defaultIntervalMs;
+        save();
+    }
+    
+    /**
+     * Record a check that did not get an answer; the interval from the last answer is kept.
+     * @throws IOException if the state could not be persisted; it still applies until the next boot
+     */
+    synchronized void recordFailure(long now) throws IOException {
+        lastAttemptAt = now;
+        failures++;
+        save();
+    }
+    
+    synchronized long getIntervalMs() {
+        return intervalMs;
+    }
+    
+    synchronized int getFailures() {
+        return failures;
+    }
+    
+    @Override
+    public synchronized String toString() {
+        return "CheckSchedule{lastAttemptAt=" + lastAttemptAt + ", intervalMs=" + intervalMs
+                + ", failures=" + failures + ", bootDelayMs=" + bootDelayMs() + "}";
+    }
+    
+    /** Restore the persisted state; a missing, corrupt or foreign file leaves the defaults. */
+    private void load() {
+        if (stateFile == null) {
+            return;
+        }
+        Map<String, String> values = new AtomicStateFile(stateFile).readValues();
+        if (values == null) {
+            return;
+        }
+        try {
+            if (Integer.parseInt(values.get("version")) != VERSION) {
+                return;
+            }
+            lastAttemptAt = Long.parseLong(values.get("last_attempt_at"));
+            intervalMs = clampInterval(Long.parseLong(values.get("interval_ms")));
+            failures = Math.max(0, Integer.parseInt(values.get("failures")));
+        } catch (RuntimeException e) {
+            lastAttemptAt = 0;
+            intervalMs = defaultIntervalMs;
+            failures = 0;
+        }
+    }
+    
+    private void save() throws IOException {
+        if (stateFile == null) {
+            return;
+        }
+        new AtomicStateFile(stateFile).write("version=" + VERSION + "\n"
+                + "last_attempt_at=" + lastAttemptAt + "\n"
+                + "interval_ms=" + intervalMs + "\n"
+                + "failures=" + failures + "\n");
+    }
+}
\ No newline at end of file
@@ -0,0 +1,98 @@
+package com.quectel.otatest;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Schedules background update checks with AlarmManager according to {@link CheckSchedule}.
+ *
+ * On boot the first check is deferred by the device's jitter instead of running immediately, and
+ * each completed check arms the alarm for the next one. The alarm fires a broadcast to
+ * MyBootReceiver, which starts MyService to run the check. Alarms do not survive a reboot, but
+ * the schedule state does, so BOOT_COMPLETED re-arms from where the previous boot left off.
+ *
+ * Tunables: persist.sys.ota.boot_jitter_ms (boot window, default 10 min) and
+ * persist.sys.ota.check_interval_ms (interval when the server gives none, default 24 h).
+ */
+final class CheckScheduler {
+    private static final String TAG = "CheckScheduler";
+    static final String ACTION_SCHEDULED_CHECK = "com.quectel.otatest.action.SCHEDULED_CHECK";
+    private static final String STATE_PATH = "/data/ota_package/.check_schedule";
+    private static final long DEFAULT_BOOT_WINDOW_MS = 10 * 60 * 1000L;
+    private static final long DEFAULT_INTERVAL_MS = 24 * 60 * 60 * 1000L;
+    
+    private static CheckSchedule schedule;
+    
+    private CheckScheduler() {
+    }
+    
+    private static synchronized CheckSchedule schedule() {
+        if (schedule == null) {
+            String deviceKey = SystemProperties.get("ro.serialno", "");
+            if (deviceKey.isEmpty()) {
+                deviceKey = SystemProperties.get("ro.boot.serialno", "");
+            }
+            schedule = new CheckSchedule(new File(STATE_PATH), deviceKey,
+                    SystemProperties.getLong("persist.sys.ota.boot_jitter_ms", DEFAULT_BOOT_WINDOW_MS),
+                    SystemProperties.getLong("persist.sys.ota.check_interval_ms", DEFAULT_INTERVAL_MS));
+            Log.d(TAG, "Loaded " + schedule);
+        }
+        return schedule;
+    }
+    
+    /** Arm the first check after boot. */
+    static void onBoot(Context context) {
+        long delay = schedule().delayAfterBoot(System.currentTimeMillis());
+        Log.i(TAG, "Boot completed, first update check in " + delay / 1000 + "s");
+        arm(context, delay);
+    }
+    
+    /** Make sure an alarm is pending, e.g. after the service was restarted without a check. */
+    static void ensureScheduled(Context context) {
+        arm(context, schedule().delayUntilDue(System.currentTimeMillis()));
+    }
+    
+    /**
+     * Record the outcome of a background check and arm the next one. An error answer from the
+     * server counts as a failure, so it is retried sooner than the regular interval.
+     */
+    static void onCheckCompleted(Context context, OTAApiClient.UpdateResponse response, OTAApiException failure) {
+        long now = System.currentTimeMillis();
+        CheckSchedule current = schedule();
+        try {
+            if (failure != null || response == null || response.isError()) {
+                current.recordFailure(now);
+            } else {
+                current.recordSuccess(now, response.nextCheckSeconds >= 0 ? response.nextCheckSeconds * 1000 : -1);
+            }
+        } catch (IOException e) {
+            // Only costs an earlier check after the next boot
+            Log.w(TAG, "Failed to persist the check schedule: " + e.getMessage());
+        }
+        long delay = current.delayUntilDue(now);
+        Log.i(TAG, "Next update check in " + delay / 1000 + "s (" + current + ")");
+        arm(context, delay);
+    }
+    
+    private static void arm(Context context, long delayMs) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarmManager == null) {
+            Log.e(TAG, "AlarmManager not available, background checks are not scheduled");
+            return;
+        }
+        Intent intent = new Intent(context, MyBootReceiver.class).setAction(ACTION_SCHEDULED_CHECK);
+        PendingIntent pendingIntent = PendingIntent.getBroadcast(context, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+        // Inexact is fine: the jitter already spreads devices, and it lets the alarm batch with others
+        alarmManager.setAndAllowWhileIdle(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + delayMs, pendingIntent);
+    }
+}
\ No newline at end of file
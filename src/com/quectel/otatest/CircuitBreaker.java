@@ -0,0 +1,108 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-host circuit breaker shared by the update check and the downloader.
+ *
+ * After {@link #FAILURE_THRESHOLD} consecutive failures the circuit opens and requests to the host
+ * fail immediately for {@link #INITIAL_OPEN_MS}. The first request after that is let through as a
+ * trial: success closes the circuit, failure opens it again for twice as long, up to
+ * {@link #MAX_OPEN_MS}. Only server-side faults count as failures (connect errors, timeouts, 5xx,
+ * 429); a 4xx answer shows the server is up and counts as a success.
+ */
+class CircuitBreaker {
+    private static final String TAG = "CircuitBreaker";
+    private static final int FAILURE_THRESHOLD = 5;
+    private static final long INITIAL_OPEN_MS = 30 * 1000;
+    private static final long MAX_OPEN_MS = 10 * 60 * 1000;
+    
+    private static final ConcurrentHashMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    
+    private final String host;
+    private int consecutiveFailures;
+    private long openMs = INITIAL_OPEN_MS;
+    /** When the circuit may let a trial request through; 0 while closed. */
+    private long openUntil;
+    private boolean trialInFlight;
+    
+    private CircuitBreaker(String host) {
+        this.host = host;
+    }
+    
+    /** Thrown instead of sending a request while the circuit is open. */
+    static class OpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final long retryInMs;
+        
+        OpenException(String host, long retryInMs) {
+            super("Circuit open for " + host + ", next attempt in " + retryInMs + "ms");
+            this.retryInMs = retryInMs;
+        }
+    }
+    
+    /** The breaker for the host and port of {@code url}. */
+    static CircuitBreaker forUrl(String url) {
+        String host;
+        try {
+            URI uri = URI.create(url);
+            host = uri.getScheme() + "://" + uri.getHost() + (uri.getPort() != -1 ? ":" + uri.getPort() : "");
+        } catch (IllegalArgumentException e) {
+            host = url;
+        }
+        CircuitBreaker breaker = breakers.get(host);
+        if (breaker == null) {
+            breakers.putIfAbsent(host, new CircuitBreaker(host));
+            breaker = breakers.get(host);
+        }
+        return breaker;
+    }
+    
+    /**
+     * Claim permission to send a request.
+     * @throws OpenException if the circuit is open, or half open with a trial already running
+     */
+    synchronized void acquire() throws OpenException {
+        if (openUntil == 0) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (now < openUntil || trialInFlight) {
+            throw new OpenException(host, Math.max(0, openUntil - now));
+        }
+        Log.i(TAG, host + ": half open, letting a trial request through");
+        trialInFlight = true;
+    }
+    
+    synchronized void recordSuccess() {
+        if (openUntil != 0) {
+            Log.i(TAG, host + ": ✓ trial request succeeded, circuit closed");
+        }
+        consecutiveFailures = 0;
+        openMs = INITIAL_OPEN_MS;
+        openUntil = 0;
+        trialInFlight = false;
+    }
+    
+    synchronized void recordFailure() {
+        consecutiveFailures++;
+        if (trialInFlight) {
+            trialInFlight = false;
+            openMs = Math.min(MAX_OPEN_MS, openMs * 2);
+            openUntil = System.currentTimeMillis() + openMs;
+            Log.w(TAG, host + ": trial request failed, circuit open for " + openMs + "ms");
+        } else if (openUntil == 0 && consecutiveFailures >= FAILURE_THRESHOLD) {
+            openUntil = System.currentTimeMillis() + openMs;
+            Log.w(TAG, host + ": ⚠ " + consecutiveFailures + " consecutive failures, circuit open for " + openMs + "ms");
+        }
+    }
+    
+    /** The request ended without telling anything about the server, e.g. it was cancelled. */
+    synchronized void recordAbandoned() {
+        trialInFlight = false;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,240 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checkpoint journal for a resumable ranged download, kept next to the target file.
+ *
+ * The journal records the source URL, the server validators (ETag / Last-Modified), the total
+ * length and, per segment, how many bytes are known to be on disk. A checkpoint fsyncs the data
+ * file before the journal is replaced through {@link AtomicStateFile}, so a committed range always
+ * refers to durable bytes. A torn or foreign journal fails its CRC and is discarded.
+ *
+ * Resuming relies on a validator to tell that the remote file did not change. When the server
+ * sends neither ETag nor Last-Modified the journal is kept in memory only, for the segments of
+ * the current download, and is never written.
+ */
+class DownloadJournal {
+    private static final String TAG = "DownloadJournal";
+    private static final String SUFFIX = ".journal";
+    private static final int VERSION = 1;
+    
+    private final String destPath;
+    final String url;
+    final String etag;
+    final String lastModified;
+    final long length;
+    final List<Segment> segments;
+    
+    private DownloadJournal(String destPath, String url, String etag, String lastModified,
+            long length, List<Segment> segments) {
+        this.destPath = destPath;
+        this.url = url;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.length = length;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+    
+    /** A byte range [start, end] of the target file and the number of bytes committed from start. */
+    static class Segment {
+        final int index;
+        final long start;
+        final long end;
+        final AtomicLong written;
+        
+        Segment(int index, long start, long end, long written) {
+            this.index = index;
+            this.start = start;
+            this.end = end;
+            this.written = new AtomicLong(written);
+        }
+        
+        long size() {
+            return end - start + 1;
+        }
+        
+        long position() {
+            return start + written.get();
+        }
+        
+        boolean isComplete() {
+            return written.get() >= size();
+        }
+    }
+    
+    /**
+     * Start a new journal that splits {@code length} bytes into {@code segmentCount} ranges.
+     * Nothing is written to disk until the first {@link #checkpoint}.
+     */
+    static DownloadJournal create(String destPath, String url, String etag, String lastModified,
+            long length, int segmentCount) {
+        List<Segment> segments = new ArrayList<>();
+        long segmentSize = length / segmentCount;
+        for (int i = 0; i < segmentCount; i++) {
+            long start = i * segmentSize;
+            long end = (i == segmentCount - 1) ? length - 1 : start + segmentSize - 1;
+            segments.add(new Segment(i, start, end, 0));
+        }
+        return new DownloadJournal(destPath, url, etag, lastModified, length, segments);
+    }
+    
+    /**
+     * Load the journal for {@code destPath}.
+     * @return the journal, or null if there is none or it is unreadable or corrupt
+     */
+    static DownloadJournal load(String destPath) {
+        List<String> lines = stateFile(destPath).read();
+        if (lines == null) {
+            return null;
+        }
+        
+        try {
+            String url = null;
+            String etag = null;
+            String lastModified = null;
+            long length = -1;
+            int version = -1;
+            List<Segment> segments = new ArrayList<>();
+            for (String line : lines) {
+                int split = line.indexOf('=');
+                if (split < 0) {
+                    continue;
+                }
+                String key = line.substring(0, split);
+                String value = line.substring(split + 1);
+                switch (key) {
+                    case "version":
+                        version = Integer.parseInt(value);
+                        break;
+                    case "url":
+                        url = value;
+                        break;
+                    case "etag":
+                        etag = value.isEmpty() ? null : value;
+                        break;
+                    case "last_modified":
+                        lastModified = value.isEmpty() ? null : value;
+                        break;
+                    case "length":
+                        length = Long.parseLong(value);
+                        break;
+                    case "segment":
+                        String[] parts = value.split(",");
+                        segments.add(new Segment(segments.size(), Long.parseLong(parts[0]),
+                                Long.parseLong(parts[1]), Long.parseLong(parts[2])));
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (version != VERSION || url == null || length <= 0 || segments.isEmpty()) {
+                Log.w(TAG, "Journal is incomplete or from another version, discarding");
+                return null;
+            }
+            return new DownloadJournal(destPath, url, etag, lastModified, length, segments);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Failed to parse journal: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Whether this journal describes the same remote object as the given probe result. A journal
+     * without a validator never matches.
+     */
+    boolean matches(String url, String etag, String lastModified, long length) {
+        if (!this.url.equals(url) || this.length != length) {
+            return false;
+        }
+        if (this.etag != null) {
+            return this.etag.equals(etag);
+        }
+        return this.lastModified != null && this.lastModified.equals(lastModified);
+    }
+    
+    /** The validator to send with If-Range, or null if the server gave none. */
+    String validator() {
+        return etag != null ? etag : lastModified;
+    }
+    
+    /** Whether a later download can resume from this journal, i.e. whether it is ever written. */
+    boolean isResumable() {
+        return validator() != null;
+    }
+    
+    long committedBytes() {
+        long total = 0;
+        for (Segment segment : segments) {
+            total += Math.min(segment.written.get(), segment.size());
+        }
+        return total;
+    }
+    
+    /**
+     * End of the contiguous run of written bytes starting at offset 0: every byte before the
+     * returned offset has been written to the target file.
+     */
+    long contiguousEnd() {
+        long end = 0;
+        for (Segment segment : segments) {
+            end = segment.position();
+            if (!segment.isComplete()) {
+                break;
+            }
+        }
+        return end;
+    }
+    
+    /** Forget all committed ranges, e.g. when the partial file has gone missing. */
+    void reset() {
+        for (Segment segment : segments) {
+            segment.written.set(0);
+        }
+    }
+    
+    /**
+     * Make the bytes written so far durable and record them in the journal.
+     * The segment counters are sampled before the data is forced, so every recorded byte was
+     * written before the fsync. Does nothing if the journal is not {@link #isResumable resumable}.
+     */
+    synchronized void checkpoint(FileChannel data) throws IOException {
+        if (!isResumable()) {
+            return;
+        }
+        StringBuilder body = new StringBuilder();
+        body.append("version=").append(VERSION).append('\n');
+        body.append("url=").append(url).append('\n');
+        body.append("etag=").append(etag != null ? etag : "").append('\n');
+        body.append("last_modified=").append(lastModified != null ? lastModified : "").append('\n');
+        body.append("length=").append(length).append('\n');
+        for (Segment segment : segments) {
+            body.append("segment=").append(segment.start).append(',').append(segment.end)
+                    .append(',').append(segment.written.get()).append('\n');
+        }
+        
+        data.force(false);
+        stateFile(destPath).write(body.toString());
+    }
+    
+    /** Remove the journal once the download completed or can no longer be resumed. */
+    void delete() {
+        delete(destPath);
+    }
+    
+    static void delete(String destPath) {
+        stateFile(destPath).delete();
+    }
+    
+    private static AtomicStateFile stateFile(String destPath) {
+        return new AtomicStateFile(new File(destPath + SUFFIX));
+    }
+}
\ No newline at end of file
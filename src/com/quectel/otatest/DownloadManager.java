@@ -4,39 +4,180 @@ import android.util.Log;
 
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class DownloadManager {
     private static final String TAG = "DownloadManager";
-    private static final int BUFFER_SIZE = 4096;
-    private static final int TIMEOUT_MS = 30000; // 30 seconds
+    private static final int DEFAULT_BUFFER_SIZE = 256 * 1024; // 256 KB
+    private static final int MIN_BUFFER_SIZE = 4096;
+    private static final int MAX_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int DEFAULT_SEGMENT_COUNT = 4;
+    static final int MAX_SEGMENT_COUNT = 16;
+    private static final long MIN_SEGMENT_SIZE = 8L * 1024 * 1024; // 8 MB
+    private static final long CHECKPOINT_INTERVAL = 16L * 1024 * 1024; // 16 MB per segment
+    
+    private int segmentCount = DEFAULT_SEGMENT_COUNT;
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+    private Executor progressExecutor = ProgressPublisher.directExecutor();
     
     public DownloadManager() {
         // Default constructor
     }
     
+    /**
+     * Set the number of parallel HTTP Range connections used for a download.
+     * A value of 1 disables segmented mode; the download is still resumable if the server
+     * supports ranges.
+     */
+    public void setSegmentCount(int count) {
+        if (count < 1 || count > MAX_SEGMENT_COUNT) {
+            throw new IllegalArgumentException("Segment count must be between 1 and " + MAX_SEGMENT_COUNT);
+        }
+        segmentCount = count;
+    }
+    
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+    
+    /**
+     * Set the size of the direct buffer each connection fills before issuing one positional
+     * write to the destination file.
+     */
+    public void setBufferSize(int size) {
+        if (size < MIN_BUFFER_SIZE || size > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be between " + MIN_BUFFER_SIZE
+                    + " and " + MAX_BUFFER_SIZE);
+        }
+        bufferSize = size;
+    }
+    
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    
+    /**
+     * Set the executor on which {@link DownloadCallback#onProgress} is delivered, e.g. a main
+     * thread Handler's post method. Progress is rate limited by a {@link ProgressPublisher}, so
+     * the executor sees at most one queued delivery at a time.
+     */
+    public void setProgressExecutor(Executor executor) {
+        progressExecutor = executor != null ? executor : ProgressPublisher.directExecutor();
+    }
+    
     public boolean downloadFile(String urlString, String destPath, DownloadCallback callback) {
+        return downloadFile(urlString, destPath, null, callback);
+    }
+    
+    /**
+     * Download {@code urlString} to {@code destPath}, computing the SHA-256 of the file while it
+     * is written.
+     * @param expectedSha256 expected digest as hex or base64, or null to skip verification.
+     *     On a mismatch the file is deleted and the callback gets an error instead of success.
+     */
+    public boolean downloadFile(String urlString, String destPath, String expectedSha256,
+            DownloadCallback callback) {
         Log.i(TAG, "=== Starting File Download ===");
         Log.d(TAG, "Source URL: " + urlString);
         Log.d(TAG, "Destination: " + destPath);
-        Log.d(TAG, "Buffer size: " + BUFFER_SIZE + " bytes");
-        Log.d(TAG, "Timeout: " + TIMEOUT_MS + "ms");
+        Log.d(TAG, "Expected SHA-256: " + (expectedSha256 != null ? expectedSha256 : "none"));
+        Log.d(TAG, "Buffer size: " + bufferSize + " bytes");
+        Log.d(TAG, "Timeouts: connect " + HttpTransport.getConnectTimeoutMs() + "ms, read "
+                + HttpTransport.getReadTimeoutMs() + "ms");
+        Log.d(TAG, "Segment count: " + segmentCount);
+        
+        createDirectoryIfNeeded(destPath);
+        RemoteInfo info;
+        try {
+            info = probe(urlString);
+        } catch (CircuitBreaker.OpenException e) {
+            // Leave any journal alone; the download resumes once the server is back
+            Log.w(TAG, "Download not started: " + e.getMessage());
+            if (callback != null) {
+                callback.onError(e.getMessage());
+            }
+            return false;
+        }
+        DownloadJournal journal = DownloadJournal.load(destPath);
+        
+        if (journal != null && info == null) {
+            // Journals are only written after a successful probe, so this is a transient failure;
+            // keep the journal and the partial file for the next attempt to resume
+            String error = "Could not probe " + urlString + ", keeping partial download for retry";
+            Log.w(TAG, error);
+            if (callback != null) {
+                callback.onError(error);
+            }
+            return false;
+        }
+        
+        if (journal != null && !journal.matches(urlString, info.etag, info.lastModified, info.length)) {
+            Log.i(TAG, "Existing journal does not match the remote file, starting over");
+            journal.delete();
+            journal = null;
+        }
         
+        if (info != null && info.acceptRanges && info.length > 0) {
+            if (journal == null) {
+                int segments = (int) Math.max(1, Math.min(segmentCount, info.length / MIN_SEGMENT_SIZE));
+                journal = DownloadJournal.create(destPath, urlString, info.etag, info.lastModified,
+                        info.length, segments);
+                if (!journal.isResumable()) {
+                    Log.w(TAG, "Server sent neither ETag nor Last-Modified, so an interrupted download"
+                            + " starts over instead of resuming");
+                }
+            } else {
+                Log.i(TAG, "Resuming download: " + journal.committedBytes() + " of " + journal.length
+                        + " bytes already committed");
+            }
+            try {
+                return downloadRanged(urlString, destPath, journal, expectedSha256, callback,
+                        createPublisher(callback));
+            } catch (RangeNotSupportedException e) {
+                Log.w(TAG, "Server ignored Range request, falling back to single stream: " + e.getMessage());
+                journal.delete();
+            }
+        } else if (info != null) {
+            Log.i(TAG, "Ranged mode not used (Accept-Ranges: " + info.acceptRanges
+                    + ", length: " + info.length + "), using single stream");
+        }
+        
+        return downloadSingleStream(urlString, destPath, expectedSha256, callback, createPublisher(callback));
+    }
+    
+    private ProgressPublisher createPublisher(DownloadCallback callback) {
+        return callback != null ? new ProgressPublisher(progressExecutor, callback::onProgress) : null;
+    }
+    
+    private boolean downloadSingleStream(String urlString, String destPath, String expectedSha256,
+            DownloadCallback callback, ProgressPublisher publisher) {
         long downloadStartTime = System.currentTimeMillis();
         HttpURLConnection connection = null;
+        boolean bodyConsumed = false;
+        DownloadResult result;
         
         try {
             createDirectoryIfNeeded(destPath);
             Log.d(TAG, "Directory structure verified");
             
-            URL url = new URL(urlString);
-            Log.d(TAG, "URL object created, establishing connection...");
-            
-            connection = (HttpURLConnection) url.openConnection();
-            connection.setConnectTimeout(TIMEOUT_MS);
-            connection.setReadTimeout(TIMEOUT_MS);
+            Log.d(TAG, "Establishing connection...");
+            connection = HttpTransport.open(urlString);
             Log.d(TAG, "Connection timeouts configured");
             
             Log.d(TAG, "Connecting to server...");
@@ -53,24 +194,26 @@ public class DownloadManager {
                 return false;
             }
             
-            int fileLength = connection.getContentLength();
+            long fileLength = connection.getContentLengthLong();
             Log.i(TAG, "File size: " + fileLength + " bytes (" + (fileLength / 1024.0 / 1024.0) + " MB)");
             
-            try (InputStream input = connection.getInputStream();
-                 FileOutputStream output = new FileOutputStream(destPath)) {
+            try (ReadableByteChannel input = Channels.newChannel(connection.getInputStream());
+                 FileChannel output = new FileOutputStream(destPath).getChannel()) {
                 
                 Log.d(TAG, "Starting data transfer...");
-                byte[] buffer = new byte[BUFFER_SIZE];
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                StreamingDigest digest = new StreamingDigest();
                 long total = 0;
                 int count;
                 long lastProgressTime = System.currentTimeMillis();
                 int lastProgress = -1;
                 
-                while ((count = input.read(buffer)) != -1) {
+                while ((count = transferChunk(input, output, total, Long.MAX_VALUE, buffer)) != -1) {
+                    buffer.rewind();
+                    digest.update(buffer, total);
                     total += count;
-                    output.write(buffer, 0, count);
                     
-                    if (fileLength > 0 && callback != null) {
+                    if (fileLength > 0) {
                         final int progress = (int) (total * 100 / fileLength);
                         
                         // Log progress every 10% or every 5 seconds
@@ -80,9 +223,15 @@ public class DownloadManager {
                             lastProgressTime = System.currentTimeMillis();
                             lastProgress = progress;
                         }
-                        
-                        callback.onProgress(progress);
                     }
+                    
+                    if (publisher != null) {
+                        publisher.update(total, fileLength);
+                    }
+                }
+                bodyConsumed = true;
+                if (publisher != null) {
+                    publisher.complete(total, fileLength > 0 ? fileLength : total);
                 }
                 
                 long downloadDuration = System.currentTimeMillis() - downloadStartTime;
@@ -92,13 +241,19 @@ public class DownloadManager {
                 Log.d(TAG, "Total bytes transferred: " + total);
                 Log.d(TAG, "Download duration: " + downloadDuration + "ms");
                 Log.d(TAG, "Average speed: " + String.format("%.2f MB/s", downloadSpeed));
+                
+                result = new DownloadResult(destPath, total, digest.digest());
             }
             
+            if (!verifyDigest(result, expectedSha256, callback)) {
+                return false;
+            }
             if (callback != null) {
-                callback.onSuccess();
+                callback.onSuccess(result);
             }
             
             Log.i(TAG, "=== Download Completed Successfully ===");
+            Log.d(TAG, "HTTP transport: " + HttpTransport.getStats());
             return true;
             
         } catch (Exception e) {
@@ -112,12 +267,375 @@ public class DownloadManager {
             return false;
         } finally {
             if (connection != null) {
-                Log.d(TAG, "Closing HTTP connection");
-                connection.disconnect();
+                Log.d(TAG, bodyConsumed ? "Returning HTTP connection to the pool" : "Closing HTTP connection");
+                HttpTransport.release(connection, bodyConsumed);
             }
         }
     }
     
+    /**
+     * Download the unfinished segments of {@code journal} as parallel HTTP Range requests, each
+     * written at its own offset of the destination file with positional FileChannel writes.
+     * Progress is checkpointed to the journal so a later call can resume after a failure, app kill
+     * or reboot.
+     */
+    private boolean downloadRanged(String urlString, String destPath, DownloadJournal journal,
+            String expectedSha256, DownloadCallback callback, ProgressPublisher publisher)
+            throws RangeNotSupportedException {
+        Log.i(TAG, "=== Starting Ranged Download ===");
+        long downloadStartTime = System.currentTimeMillis();
+        long fileLength = journal.length;
+        Log.i(TAG, "File size: " + fileLength + " bytes, " + journal.segments.size() + " segment(s)");
+        
+        RangedTransfer transfer = null;
+        
+        try (RandomAccessFile file = new RandomAccessFile(destPath, "rw")) {
+            if (file.length() != fileLength && journal.committedBytes() > 0) {
+                Log.w(TAG, "Partial file has unexpected size " + file.length() + ", discarding committed ranges");
+                journal.reset();
+            }
+            file.setLength(fileLength);
+            transfer = new RangedTransfer(urlString, file.getChannel(), journal, callback, publisher);
+            
+            for (DownloadJournal.Segment segment : journal.segments) {
+                if (!segment.isComplete()) {
+                    final RangedTransfer t = transfer;
+                    transfer.tasks.add(OtaExecutors.TRANSFER.submit("segment-" + segment.index,
+                            token -> downloadSegmentWithRetry(t, segment)));
+                }
+            }
+            
+            try {
+                for (OtaExecutors.Task<Long> task : transfer.tasks) {
+                    task.get();
+                }
+            } catch (ExecutionException e) {
+                transfer.cancel();
+                Throwable cause = e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof RangeNotSupportedException) {
+                    throw (RangeNotSupportedException) cause;
+                }
+                return failRanged(downloadStartTime, cause, transfer);
+            }
+            
+            if (transfer.total.get() != fileLength) {
+                throw new IOException("Size mismatch: received " + transfer.total.get() + " of " + fileLength + " bytes");
+            }
+            transfer.channel.force(false);
+            journal.delete();
+            if (publisher != null) {
+                publisher.complete(fileLength, fileLength);
+            }
+            
+            transfer.digest.catchUp(transfer.channel, fileLength);
+            if (transfer.digest.position() != fileLength) {
+                throw new IOException("SHA-256 covers " + transfer.digest.position() + " of " + fileLength + " bytes");
+            }
+            DownloadResult result = new DownloadResult(destPath, fileLength, transfer.digest.digest());
+            long caughtUp = transfer.digest.caughtUpBytes();
+            
+            long downloadDuration = System.currentTimeMillis() - downloadStartTime;
+            double downloadSpeed = (fileLength / 1024.0 / 1024.0) / (downloadDuration / 1000.0);
+            Log.i(TAG, "✓ Ranged transfer completed successfully, " + caughtUp + " bytes ("
+                    + caughtUp * 100 / Math.max(1, fileLength) + "%) hashed by reading back from disk");
+            Log.d(TAG, "Total bytes in file: " + fileLength);
+            Log.d(TAG, "Download duration: " + downloadDuration + "ms");
+            Log.d(TAG, "Average speed: " + String.format("%.2f MB/s", downloadSpeed));
+            
+            if (!verifyDigest(result, expectedSha256, callback)) {
+                return false;
+            }
+            if (callback != null) {
+                callback.onSuccess(result);
+            }
+            Log.i(TAG, "=== Ranged Download Completed Successfully ===");
+            Log.d(TAG, "HTTP transport: " + HttpTransport.getStats());
+            return true;
+            
+        } catch (RangeNotSupportedException e) {
+            throw e;
+        } catch (Exception e) {
+            if (transfer != null) {
+                transfer.cancel();
+            }
+            return failRanged(downloadStartTime, e, transfer);
+        }
+    }
+    
+    private boolean failRanged(long downloadStartTime, Throwable e, RangedTransfer transfer) {
+        long downloadDuration = System.currentTimeMillis() - downloadStartTime;
+        Log.e(TAG, "Ranged download failed after " + downloadDuration + "ms: " + e.getMessage(), e);
+        Log.e(TAG, "Exception class: " + e.getClass().getName());
+        
+        if (transfer != null && transfer.channel.isOpen() && transfer.journal.isResumable()) {
+            try {
+                transfer.journal.checkpoint(transfer.channel);
+                Log.i(TAG, "Checkpointed " + transfer.journal.committedBytes() + " bytes for resume");
+            } catch (IOException checkpointError) {
+                Log.w(TAG, "Failed to checkpoint journal: " + checkpointError.getMessage());
+            }
+        }
+        
+        if (transfer != null && transfer.callback != null) {
+            transfer.callback.onError(e.getMessage());
+        }
+        return false;
+    }
+    
+    /**
+     * Download a segment, resuming it from its committed position after network errors and
+     * retryable HTTP errors under {@link RetryPolicy#DOWNLOAD}. Attempts go through the circuit
+     * breaker of the download host, so segments stop hammering a server that is down.
+     */
+    private long downloadSegmentWithRetry(RangedTransfer transfer, DownloadJournal.Segment segment)
+            throws IOException, RangeNotSupportedException {
+        CircuitBreaker breaker = CircuitBreaker.forUrl(transfer.url);
+        for (int attempt = 1; ; attempt++) {
+            breaker.acquire();
+            try {
+                downloadSegment(transfer, segment);
+                breaker.recordSuccess();
+                RetryPolicy.DOWNLOAD.recordSuccess();
+                return segment.written.get();
+            } catch (RangeNotSupportedException e) {
+                breaker.recordSuccess();
+                throw e;
+            } catch (IOException e) {
+                if (transfer.cancelled) {
+                    breaker.recordAbandoned();
+                    throw e;
+                }
+                boolean retryable = !(e instanceof HttpStatusException)
+                        || RetryPolicy.isRetryableStatus(((HttpStatusException) e).code);
+                if (retryable) {
+                    breaker.recordFailure();
+                } else {
+                    breaker.recordSuccess();
+                }
+                long retryAfter = e instanceof HttpStatusException ? ((HttpStatusException) e).retryAfterMs : -1;
+                long delay = retryable ? RetryPolicy.DOWNLOAD.nextDelay(attempt, retryAfter) : -1;
+                if (delay < 0) {
+                    throw e;
+                }
+                Log.w(TAG, "Segment " + segment.index + " attempt " + attempt + " failed (" + e.getMessage()
+                        + "), resuming at byte " + segment.position() + " in " + delay + "ms");
+                if (transfer.awaitCancelled(delay)) {
+                    throw new IOException("Segment " + segment.index + " cancelled");
+                }
+            }
+        }
+    }
+    
+    private long downloadSegment(RangedTransfer transfer, DownloadJournal.Segment segment)
+            throws IOException, RangeNotSupportedException {
+        DownloadJournal journal = transfer.journal;
+        long start = segment.position();
+        long end = segment.end;
+        Log.d(TAG, "Segment " + segment.index + ": bytes " + start + "-" + end);
+        HttpURLConnection connection = null;
+        boolean bodyConsumed = false;
+        try {
+            connection = HttpTransport.open(transfer.url);
+            connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+            if (journal.validator() != null) {
+                connection.setRequestProperty("If-Range", journal.validator());
+            }
+            transfer.register(connection);
+            
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                // Either ranges are not honoured or If-Range found that the file changed
+                throw new RangeNotSupportedException("segment " + segment.index + " got 200 instead of 206");
+            }
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new HttpStatusException("Segment " + segment.index + " server error: " + responseCode + " "
+                        + connection.getResponseMessage(), responseCode, connection.getHeaderField("Retry-After"));
+            }
+            
+            long position = start;
+            long sinceCheckpoint = 0;
+            try (ReadableByteChannel input = Channels.newChannel(connection.getInputStream())) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(bufferSize);
+                int count;
+                while (position <= end && !transfer.cancelled
+                        && (count = transferChunk(input, transfer.channel, position, end - position + 1, buffer)) != -1) {
+                    buffer.rewind();
+                    transfer.digest.update(buffer, position);
+                    position += count;
+                    segment.written.addAndGet(count);
+                    reportProgress(transfer, transfer.total.addAndGet(count));
+                    
+                    transfer.digest.catchUp(transfer.channel, journal.contiguousEnd());
+                    
+                    sinceCheckpoint += count;
+                    if (sinceCheckpoint >= CHECKPOINT_INTERVAL) {
+                        journal.checkpoint(transfer.channel);
+                        sinceCheckpoint = 0;
+                    }
+                }
+            }
+            
+            if (transfer.cancelled) {
+                throw new IOException("Segment " + segment.index + " cancelled");
+            }
+            if (position != end + 1) {
+                throw new IOException("Segment " + segment.index + " ended early at byte " + position
+                        + ", expected " + (end + 1));
+            }
+            bodyConsumed = true;
+            Log.d(TAG, "Segment " + segment.index + " complete (" + (position - start) + " bytes)");
+            return position - start;
+        } finally {
+            if (connection != null) {
+                transfer.unregister(connection);
+                HttpTransport.release(connection, bodyConsumed);
+            }
+        }
+    }
+    
+    /**
+     * Compare the computed digest with the expected one. On a mismatch the file and any journal
+     * are deleted so a retry starts from a clean state.
+     */
+    private boolean verifyDigest(DownloadResult result, String expectedSha256, DownloadCallback callback) {
+        Log.i(TAG, "SHA-256: " + result.getSha256Hex());
+        if (expectedSha256 == null || expectedSha256.isEmpty()) {
+            return true;
+        }
+        if (result.matches(expectedSha256)) {
+            Log.i(TAG, "✓ SHA-256 matches expected value");
+            return true;
+        }
+        
+        String error = "SHA-256 mismatch: expected " + expectedSha256 + ", got " + result.getSha256Hex();
+        Log.e(TAG, error);
+        new File(result.path).delete();
+        DownloadJournal.delete(result.path);
+        if (callback != null) {
+            callback.onError(error);
+        }
+        return false;
+    }
+    
+    /**
+     * Fill {@code buffer} from {@code input}, reading at most {@code limit} bytes, and write it to
+     * {@code output} at {@code position} with a single positional write. Batching the small reads
+     * of the network stream into one large write keeps the syscall count per GB low.
+     * @return the number of bytes written, or -1 if the stream ended before any byte was read
+     */
+    private static int transferChunk(ReadableByteChannel input, FileChannel output, long position,
+            long limit, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        if (limit < buffer.capacity()) {
+            buffer.limit((int) limit);
+        }
+        boolean endOfStream = false;
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) == -1) {
+                endOfStream = true;
+                break;
+            }
+        }
+        buffer.flip();
+        if (endOfStream && !buffer.hasRemaining()) {
+            return -1;
+        }
+        int count = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            position += output.write(buffer, position);
+        }
+        return count;
+    }
+    
+    /**
+     * Aggregate progress across segments. The publisher rate limits delivery and drops totals
+     * that arrive out of order, so concurrent segments never report progress going backwards.
+     */
+    private void reportProgress(RangedTransfer transfer, long total) {
+        long fileLength = transfer.journal.length;
+        int progress = (int) (total * 100 / fileLength);
+        int previous = transfer.lastLoggedProgress.get();
+        if (progress >= previous + 10 && transfer.lastLoggedProgress.compareAndSet(previous, progress)) {
+            Log.d(TAG, "Download progress: " + progress + "% (" + total + "/" + fileLength + " bytes)");
+        }
+        if (transfer.publisher != null) {
+            transfer.publisher.update(total, fileLength);
+        }
+    }
+    
+    /**
+     * Issue a HEAD request to learn the content length, validators and whether byte ranges are
+     * supported. Transient failures are retried, since a failed probe also throws away the resume
+     * journal.
+     * @return RemoteInfo, or null if the probe failed
+     * @throws CircuitBreaker.OpenException if the server is known to be down
+     */
+    private RemoteInfo probe(String urlString) throws CircuitBreaker.OpenException {
+        CircuitBreaker breaker = CircuitBreaker.forUrl(urlString);
+        for (int attempt = 1; ; attempt++) {
+            breaker.acquire();
+            try {
+                RemoteInfo info = probeOnce(urlString);
+                breaker.recordSuccess();
+                RetryPolicy.DOWNLOAD.recordSuccess();
+                return info;
+            } catch (HttpStatusException e) {
+                if (!RetryPolicy.isRetryableStatus(e.code)) {
+                    breaker.recordSuccess();
+                    Log.w(TAG, "HEAD probe returned " + e.code + ", using single stream");
+                    return null;
+                }
+                breaker.recordFailure();
+                if (!awaitProbeRetry(attempt, e.retryAfterMs, e)) {
+                    return null;
+                }
+            } catch (IOException e) {
+                breaker.recordFailure();
+                if (!awaitProbeRetry(attempt, -1, e)) {
+                    return null;
+                }
+            }
+        }
+    }
+    
+    private boolean awaitProbeRetry(int attempt, long retryAfterMs, IOException e) {
+        long delay = RetryPolicy.DOWNLOAD.nextDelay(attempt, retryAfterMs);
+        if (delay < 0) {
+            Log.w(TAG, "HEAD probe failed, using single stream: " + e.getMessage());
+            return false;
+        }
+        Log.w(TAG, "HEAD probe attempt " + attempt + " failed (" + e.getMessage() + "), retrying in " + delay + "ms");
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException interrupted) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+    
+    private RemoteInfo probeOnce(String urlString) throws IOException {
+        HttpURLConnection connection = null;
+        boolean bodyConsumed = false;
+        try {
+            connection = HttpTransport.open(urlString);
+            connection.setRequestMethod("HEAD");
+            
+            int responseCode = connection.getResponseCode();
+            // A HEAD response has no body, so the connection can go straight back to the pool
+            bodyConsumed = true;
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new HttpStatusException("HEAD probe returned " + responseCode, responseCode,
+                        connection.getHeaderField("Retry-After"));
+            }
+            boolean acceptRanges = "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"));
+            return new RemoteInfo(connection.getContentLengthLong(), acceptRanges,
+                    connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+        } finally {
+            HttpTransport.release(connection, bodyConsumed);
+        }
+    }
+    
     public void download(String urlString, DownloadCallback callback) {
         downloadFile(urlString, "/data/ota_package/update.zip", callback);
     }
@@ -131,9 +649,164 @@ public class DownloadManager {
         }
     }
     
+    private static class RemoteInfo {
+        final long length;
+        final boolean acceptRanges;
+        final String etag;
+        final String lastModified;
+        
+        RemoteInfo(long length, boolean acceptRanges, String etag, String lastModified) {
+            this.length = length;
+            this.acceptRanges = acceptRanges;
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+    
+    /**
+     * Shared state of one ranged download. Segments are stopped cooperatively through
+     * {@link #cancel} rather than by interrupting them, since an interrupt during a FileChannel
+     * write would close the channel for every segment and lose the final checkpoint.
+     */
+    private static class RangedTransfer {
+        final String url;
+        final FileChannel channel;
+        final DownloadJournal journal;
+        final DownloadCallback callback;
+        final ProgressPublisher publisher;
+        final AtomicLong total;
+        final AtomicInteger lastLoggedProgress = new AtomicInteger(0);
+        final StreamingDigest digest = new StreamingDigest();
+        final List<HttpURLConnection> connections = new ArrayList<>();
+        final List<OtaExecutors.Task<Long>> tasks = new ArrayList<>();
+        volatile boolean cancelled;
+        
+        RangedTransfer(String url, FileChannel channel, DownloadJournal journal, DownloadCallback callback,
+                ProgressPublisher publisher) {
+            this.url = url;
+            this.channel = channel;
+            this.journal = journal;
+            this.callback = callback;
+            this.publisher = publisher;
+            this.total = new AtomicLong(journal.committedBytes());
+        }
+        
+        synchronized void register(HttpURLConnection connection) throws IOException {
+            if (cancelled) {
+                throw new IOException("Download cancelled");
+            }
+            connections.add(connection);
+        }
+        
+        synchronized void unregister(HttpURLConnection connection) {
+            connections.remove(connection);
+        }
+        
+        /**
+         * Wait out a retry delay, returning early if the transfer is cancelled.
+         * @return true if the transfer was cancelled
+         */
+        synchronized boolean awaitCancelled(long delayMs) throws InterruptedIOException {
+            long until = System.currentTimeMillis() + delayMs;
+            long remaining;
+            while (!cancelled && (remaining = until - System.currentTimeMillis()) > 0) {
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Retry wait interrupted");
+                }
+            }
+            return cancelled;
+        }
+        
+        /** Stop all segments and wait for them so the journal sees their final positions. */
+        void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                notifyAll();
+                for (HttpURLConnection connection : connections) {
+                    connection.disconnect();
+                }
+            }
+            for (OtaExecutors.Task<Long> task : tasks) {
+                task.cancel();
+            }
+            try {
+                for (OtaExecutors.Task<Long> task : tasks) {
+                    task.awaitTermination(HttpTransport.getReadTimeoutMs(), TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+    
+    /** An HTTP error status, with the Retry-After the server sent along, if any. */
+    private static class HttpStatusException extends IOException {
+        private static final long serialVersionUID = 1L;
+        final int code;
+        final long retryAfterMs;
+        
+        HttpStatusException(String message, int code, String retryAfterHeader) {
+            super(message);
+            this.code = code;
+            this.retryAfterMs = RetryPolicy.parseRetryAfter(retryAfterHeader);
+        }
+    }
+    
+    /** Thrown when the server answers a Range request with the full body. */
+    private static class RangeNotSupportedException extends Exception {
+        private static final long serialVersionUID = 1L;
+        
+        RangeNotSupportedException(String message) {
+            super(message);
+        }
+    }
+    
+    /** A completed download and the SHA-256 computed while it was written. */
+    public static class DownloadResult {
+        public final String path;
+        public final long size;
+        private final byte[] sha256;
+        
+        DownloadResult(String path, long size, byte[] sha256) {
+            this.path = path;
+            this.size = size;
+            this.sha256 = sha256;
+        }
+        
+        public byte[] getSha256() {
+            return sha256.clone();
+        }
+        
+        public String getSha256Hex() {
+            return StreamingDigest.hex(sha256);
+        }
+        
+        /** The digest in the base64 form used by FILE_HASH in payload_properties.txt. */
+        public String getSha256Base64() {
+            return Base64.getEncoder().encodeToString(sha256);
+        }
+        
+        /** Whether {@code expected}, given as hex or base64, equals this digest. */
+        public boolean matches(String expected) {
+            String value = expected.trim();
+            if (value.length() == sha256.length * 2 && value.matches("[0-9a-fA-F]+")) {
+                return value.equalsIgnoreCase(getSha256Hex());
+            }
+            try {
+                return MessageDigest.isEqual(sha256, Base64.getDecoder().decode(value));
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+    }
+    
     public interface DownloadCallback {
-        void onProgress(int progress);
-        void onSuccess();
+        /** Rate-limited progress, delivered on the executor set with {@link DownloadManager#setProgressExecutor}. */
+        void onProgress(ProgressPublisher.Progress progress);
+        void onSuccess(DownloadResult result);
         void onError(String error);
     }
 }
\ No newline at end of file
@@ -0,0 +1,41 @@
+package com.quectel.otatest;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/** A {@link ZipLayout.Source} reading a local archive with positional FileChannel reads. */
+class FileChannelSource implements ZipLayout.Source, Closeable {
+    private final FileChannel channel;
+    
+    FileChannelSource(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+    }
+    
+    @Override
+    public long size() throws IOException {
+        return channel.size();
+    }
+    
+    @Override
+    public byte[] read(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, offset + buffer.position());
+            if (count < 0) {
+                throw new EOFException("Read of " + length + " bytes at " + offset + " beyond end " + channel.size());
+            }
+        }
+        return data;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,44 @@
+package com.quectel.otatest;
+
+import android.os.UpdateEngine;
+import android.os.UpdateEngineCallback;
+
+/** {@link OtaUpdateEngine} backed by the system update_engine service. */
+final class FrameworkUpdateEngine implements OtaUpdateEngine {
+    private final UpdateEngine updateEngine = new UpdateEngine();
+    
+    @Override
+    public boolean bind(final UpdateEngineListener listener) {
+        return updateEngine.bind(new UpdateEngineCallback() {
+            @Override
+            public void onStatusUpdate(int status, float percent) {
+                listener.onStatusUpdate(status, percent);
+            }
+            
+            @Override
+            public void onPayloadApplicationComplete(int errorCode) {
+                listener.onPayloadApplicationComplete(errorCode);
+            }
+        });
+    }
+    
+    @Override
+    public boolean unbind() {
+        return updateEngine.unbind();
+    }
+    
+    @Override
+    public void applyPayload(String url, long offset, long size, String[] headerKeyValuePairs) {
+        updateEngine.applyPayload(url, offset, size, headerKeyValuePairs);
+    }
+    
+    @Override
+    public void cancel() {
+        updateEngine.cancel();
+    }
+    
+    @Override
+    public void resetStatus() {
+        updateEngine.resetStatus();
+    }
+}
\ No newline at end of file
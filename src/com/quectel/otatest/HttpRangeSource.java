@@ -0,0 +1,138 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+
+/**
+ * A {@link ZipLayout.Source} backed by HTTP Range requests against a remote archive.
+ *
+ * The first request asks for the last {@link ZipLayout#MAX_TAIL_SIZE} bytes with a suffix range,
+ * which yields the total size from Content-Range and, for typical OTA packages, the whole end of
+ * central directory and central directory in a single round trip. Reads that fall inside that
+ * tail are served from memory.
+ */
+class HttpRangeSource implements ZipLayout.Source {
+    private static final String TAG = "HttpRangeSource";
+    
+    private final String url;
+    private long size = -1;
+    private long tailOffset;
+    private byte[] tail;
+    private int requestCount;
+    
+    HttpRangeSource(String url) {
+        this.url = url;
+    }
+    
+    @Override
+    public long size() throws IOException {
+        if (size < 0) {
+            fetchTail();
+        }
+        return size;
+    }
+    
+    @Override
+    public byte[] read(long offset, int length) throws IOException {
+        if (size < 0) {
+            fetchTail();
+        }
+        if (offset < 0 || offset + length > size) {
+            throw new IOException("Read of " + length + " bytes at " + offset + " beyond end " + size);
+        }
+        byte[] data = new byte[length];
+        if (offset >= tailOffset) {
+            System.arraycopy(tail, (int) (offset - tailOffset), data, 0, length);
+            return data;
+        }
+        long[] range = request("bytes=" + offset + "-" + (offset + length - 1), data);
+        // A proxy returning a shorter or shifted range would otherwise hand the parser wrong bytes
+        if (range[0] != offset || range[1] != offset + length - 1) {
+            throw new IOException("Asked for bytes " + offset + "-" + (offset + length - 1)
+                    + ", server returned " + range[0] + "-" + range[1]);
+        }
+        return data;
+    }
+    
+    /** Number of HTTP requests issued so far. */
+    int getRequestCount() {
+        return requestCount;
+    }
+    
+    private void fetchTail() throws IOException {
+        byte[] buffer = new byte[ZipLayout.MAX_TAIL_SIZE];
+        long[] range = request("bytes=-" + ZipLayout.MAX_TAIL_SIZE, buffer);
+        size = range[2];
+        tailOffset = range[0];
+        int length = (int) (range[1] - range[0] + 1);
+        if (length == buffer.length) {
+            tail = buffer;
+        } else {
+            tail = new byte[length];
+            System.arraycopy(buffer, 0, tail, 0, length);
+        }
+    }
+    
+    /**
+     * Issue one Range request and read the body into {@code data}.
+     * @return {first, last, total} from the Content-Range header
+     */
+    private long[] request(String range, byte[] data) throws IOException {
+        HttpURLConnection connection = null;
+        boolean bodyConsumed = false;
+        try {
+            requestCount++;
+            connection = HttpTransport.open(url);
+            connection.setRequestProperty("Range", range);
+            
+            int responseCode = connection.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Range request " + range + " failed: " + responseCode
+                        + " " + connection.getResponseMessage());
+            }
+            long[] contentRange = parseContentRange(connection.getHeaderField("Content-Range"));
+            int length = (int) (contentRange[1] - contentRange[0] + 1);
+            if (length > data.length) {
+                throw new IOException("Server returned " + length + " bytes for range " + range);
+            }
+            
+            try (InputStream input = connection.getInputStream()) {
+                int read = 0;
+                while (read < length) {
+                    int count = input.read(data, read, length - read);
+                    if (count < 0) {
+                        throw new IOException("Range " + range + " ended after " + read + " bytes");
+                    }
+                    read += count;
+                }
+            }
+            bodyConsumed = true;
+            Log.d(TAG, "Fetched " + range + " (" + length + " bytes)");
+            return contentRange;
+        } finally {
+            HttpTransport.release(connection, bodyConsumed);
+        }
+    }
+    
+    private static long[] parseContentRange(String header) throws IOException {
+        // Content-Range: bytes <first>-<last>/<total>
+        if (header == null || !header.startsWith("bytes ")) {
+            throw new IOException("Missing or invalid Content-Range: " + header);
+        }
+        try {
+            String value = header.substring(6).trim();
+            int dash = value.indexOf('-');
+            int slash = value.indexOf('/');
+            return new long[] {
+                    Long.parseLong(value.substring(0, dash)),
+                    Long.parseLong(value.substring(dash + 1, slash)),
+                    Long.parseLong(value.substring(slash + 1))
+            };
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid Content-Range: " + header, e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,171 @@
+package com.quectel.otatest;
+
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * HTTP transport shared by the API client and the downloader.
+ *
+ * Connections come from the platform HttpURLConnection keep-alive pool, which this class sizes
+ * from {@code persist.sys.ota.http.max_idle} idle connections (per host on the JDK, across hosts on
+ * Android) kept for {@code persist.sys.ota.http.keep_alive_ms}. A connection only goes back to
+ * the pool if its response body was read to the end and closed and it was never disconnected,
+ * so callers end every exchange with {@link #release} instead of calling disconnect() themselves.
+ * Connect and read timeouts come from {@code persist.sys.ota.http.connect_timeout_ms} and
+ * {@code persist.sys.ota.http.read_timeout_ms}.
+ *
+ * Requests, connections returned to the pool, discarded connections and TLS handshakes are
+ * counted, so the handshakes per update can be checked in the log.
+ */
+public final class HttpTransport {
+    private static final String TAG = "HttpTransport";
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000; // 10 seconds
+    private static final int DEFAULT_READ_TIMEOUT_MS = 30000; // 30 seconds
+    private static final int DEFAULT_MAX_IDLE = DownloadManager.MAX_SEGMENT_COUNT;
+    private static final long DEFAULT_KEEP_ALIVE_MS = 60000; // 1 minute
+    
+    private static final int connectTimeoutMs = (int) SystemProperties.getLong(
+            "persist.sys.ota.http.connect_timeout_ms", DEFAULT_CONNECT_TIMEOUT_MS);
+    private static final int readTimeoutMs = (int) SystemProperties.getLong(
+            "persist.sys.ota.http.read_timeout_ms", DEFAULT_READ_TIMEOUT_MS);
+    
+    private static final AtomicLong requests = new AtomicLong();
+    private static final AtomicLong returned = new AtomicLong();
+    private static final AtomicLong discarded = new AtomicLong();
+    private static final AtomicLong handshakes = new AtomicLong();
+    private static CountingSocketFactory socketFactory;
+    
+    static {
+        // Read once by the platform pool when the first connection is made, so set them here
+        long maxIdle = SystemProperties.getLong("persist.sys.ota.http.max_idle", DEFAULT_MAX_IDLE);
+        long keepAliveMs = SystemProperties.getLong("persist.sys.ota.http.keep_alive_ms", DEFAULT_KEEP_ALIVE_MS);
+        System.setProperty("http.keepAlive", "true");
+        System.setProperty("http.maxConnections", String.valueOf(maxIdle));
+        System.setProperty("http.keepAliveDuration", String.valueOf(keepAliveMs));
+        Log.i(TAG, "Keep-alive pool: " + maxIdle + " idle connections for " + keepAliveMs + "ms, timeouts connect "
+                + connectTimeoutMs + "ms / read " + readTimeoutMs + "ms");
+    }
+    
+    private HttpTransport() {
+    }
+    
+    public static int getConnectTimeoutMs() {
+        return connectTimeoutMs;
+    }
+    
+    public static int getReadTimeoutMs() {
+        return readTimeoutMs;
+    }
+    
+    /** Open a connection to {@code url} with the configured timeouts. */
+    public static HttpURLConnection open(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(connectTimeoutMs);
+        connection.setReadTimeout(readTimeoutMs);
+        if (connection instanceof HttpsURLConnection) {
+            ((HttpsURLConnection) connection).setSSLSocketFactory(socketFactory());
+        }
+        requests.incrementAndGet();
+        return connection;
+    }
+    
+    /**
+     * End an exchange.
+     * @param bodyConsumed true if the response body was read to the end and closed, or there was
+     *        none; the connection then stays in the pool. Otherwise it is disconnected, which is
+     *        also how an exchange in progress is aborted.
+     */
+    public static void release(HttpURLConnection connection, boolean bodyConsumed) {
+        if (connection == null) {
+            return;
+        }
+        if (bodyConsumed) {
+            returned.incrementAndGet();
+        } else {
+            discarded.incrementAndGet();
+            connection.disconnect();
+        }
+    }
+    
+    public static String getStats() {
+        return "requests=" + requests.get() + " returned=" + returned.get() + " discarded=" + discarded.get()
+                + " tls_handshakes=" + handshakes.get();
+    }
+    
+    /**
+     * One shared factory around the current default, so pooled TLS connections keep matching
+     * and every new TLS socket, i.e. every handshake, is counted.
+     */
+    private static synchronized SSLSocketFactory socketFactory() {
+        SSLSocketFactory current = HttpsURLConnection.getDefaultSSLSocketFactory();
+        if (socketFactory == null || socketFactory.delegate != current) {
+            socketFactory = new CountingSocketFactory(current);
+        }
+        return socketFactory;
+    }
+    
+    private static class CountingSocketFactory extends SSLSocketFactory {
+        final SSLSocketFactory delegate;
+        
+        CountingSocketFactory(SSLSocketFactory delegate) {
+            this.delegate = delegate;
+        }
+        
+        private Socket counted(Socket socket) {
+            long count = handshakes.incrementAndGet();
+            Log.d(TAG, "New TLS connection to " + socket.getInetAddress() + " (" + count + " so far)");
+            return socket;
+        }
+        
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return delegate.getDefaultCipherSuites();
+        }
+        
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+        
+        @Override
+        public Socket createSocket() throws IOException {
+            return counted(delegate.createSocket());
+        }
+        
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            return counted(delegate.createSocket(socket, host, port, autoClose));
+        }
+        
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return counted(delegate.createSocket(host, port));
+        }
+        
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return counted(delegate.createSocket(host, port, localHost, localPort));
+        }
+        
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return counted(delegate.createSocket(host, port));
+        }
+        
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+                throws IOException {
+            return counted(delegate.createSocket(address, port, localAddress, localPort));
+        }
+    }
+}
\ No newline at end of file
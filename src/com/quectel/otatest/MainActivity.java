@@ -53,7 +53,7 @@ public class MainActivity extends Activity {
         Log.i(TAG, "Current Build ID: " + UpdateChecker.getCurrentBuildId());
         Toast.makeText(this, "Checking for updates...", Toast.LENGTH_SHORT).show();
         
-        new Thread(new Runnable() {
+        OtaExecutors.NETWORK.execute("manual-update-check", new Runnable() {
             @Override
             public void run() {
                 Log.d(TAG, "Background thread started for manual update check");
@@ -90,6 +90,7 @@ public class MainActivity extends Activity {
                                     intent.putExtra("download_url", response.getFullPackageUrl());
                                     intent.putExtra("build_id", response.buildId);
                                     intent.putExtra("patch_notes", response.patchNotes);
+                                    intent.putExtra("package_sha256", response.sha256);
                                     
                                     Log.d(TAG, "Starting UpdateActivity with extras:");
                                     Log.d(TAG, "- download_url: " + response.getFullPackageUrl());
@@ -126,6 +127,6 @@ public class MainActivity extends Activity {
                     });
                 }
             }
-        }).start();
+        });
     }
 }
\ No newline at end of file
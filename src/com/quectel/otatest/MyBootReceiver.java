@@ -13,19 +13,40 @@ public class MyBootReceiver extends BroadcastReceiver {
         Log.d(TAG, "onReceive called with action: " + (intent != null ? intent.getAction() : "null"));
         
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
-            Log.i(TAG, "Boot completed event received - starting OTA service");
+            // Checking right away would have every device of a site hit the server at once
+            Log.i(TAG, "Boot completed event received - scheduling update check");
+            try {
+                CheckScheduler.onBoot(context);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to schedule update check after boot: " + e.getMessage(), e);
+            }
+            
+            UpdatePipeline pipeline = UpdatePipeline.getInstance();
+            pipeline.onBoot(BuildProperties.get().buildId);
+            if (pipeline.current().isResumable()) {
+                Log.i(TAG, "Installation was interrupted at " + pipeline.current().stage + " - resuming it");
+                try {
+                    Intent serviceIntent = new Intent(context, MyService.class)
+                            .putExtra(PipelineResumer.EXTRA_RESUME_PIPELINE, true);
+                    context.startForegroundService(serviceIntent);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to start MyService to resume the installation: " + e.getMessage(), e);
+                }
+            }
+        } else if (CheckScheduler.ACTION_SCHEDULED_CHECK.equals(intent.getAction())) {
+            Log.i(TAG, "Scheduled update check due - starting OTA service");
             Log.d(TAG, "Creating service intent for MyService");
             
             try {
                 Intent serviceIntent = new Intent(context, MyService.class);
                 Log.d(TAG, "Starting foreground service...");
                 context.startForegroundService(serviceIntent);
-                Log.i(TAG, "MyService started successfully after boot");
+                Log.i(TAG, "MyService started successfully for scheduled check");
             } catch (Exception e) {
-                Log.e(TAG, "Failed to start MyService after boot: " + e.getMessage(), e);
+                Log.e(TAG, "Failed to start MyService for scheduled check: " + e.getMessage(), e);
             }
         } else {
-            Log.w(TAG, "Received non-boot intent: " + intent.getAction());
+            Log.w(TAG, "Received unexpected intent: " + intent.getAction());
         }
     }
 }
\ No newline at end of file
@@ -45,9 +45,19 @@ public class MyService extends Service {
             startForeground(NOTIFICATION_ID, createSuccessNotification());
             Log.i(TAG, "✓ Service running in foreground mode");
             
-            // Check for updates in background
-            Log.d(TAG, "Initiating background update check...");
-            checkForUpdates();
+            if (intent == null) {
+                // Restarted after being killed: keep the schedule instead of checking again now
+                Log.d(TAG, "Service restarted by the system, re-arming the check schedule");
+                CheckScheduler.ensureScheduled(this);
+                PipelineResumer.resume(this);
+            } else if (intent.getBooleanExtra(PipelineResumer.EXTRA_RESUME_PIPELINE, false)) {
+                Log.d(TAG, "Resuming interrupted installation...");
+                PipelineResumer.resume(this);
+            } else {
+                // Check for updates in background
+                Log.d(TAG, "Initiating background update check...");
+                checkForUpdates();
+            }
             
         } catch (Exception e) {
             Log.e(TAG, "Error in onStartCommand: " + e.getMessage(), e);
@@ -172,66 +182,60 @@ public class MyService extends Service {
     }
 
     /**
-     * Check for updates in background thread
+     * Check for updates without blocking; the result is handled on the thread that completes it
      */
     private void checkForUpdates() {
         Log.i(TAG, "=== Starting Update Check Process ===");
-        Log.d(TAG, "Creating background thread for update check...");
         Log.i(TAG, "Current Build ID: " + UpdateChecker.getCurrentBuildId());
         
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(TAG, "Update check thread started (ID: " + Thread.currentThread().getId() + ")");
-                long checkStartTime = System.currentTimeMillis();
-                
-                try {
-                    Log.i(TAG, "Initiating API-based update check...");
-                    OTAApiClient.UpdateResponse response = UpdateChecker.checkForUpdate();
-                    
-                    long checkDuration = System.currentTimeMillis() - checkStartTime;
-                    Log.i(TAG, "Update check completed in " + checkDuration + "ms");
-                    
-                    if (response != null) {
-                        Log.i(TAG, "=== Service Update Check Results ===");
-                        Log.i(TAG, "API Status: " + response.status);
-                        Log.i(TAG, "Build ID: " + response.buildId);
-                        Log.i(TAG, "Package URL: " + response.packageUrl);
-                        
-                        if (response.isUpdateAvailable()) {
-                            Log.i(TAG, "✓ UPDATE AVAILABLE - Preparing user notification");
-                            Log.i(TAG, "📦 Download URL will be: " + response.getFullPackageUrl());
-                            Log.i(TAG, "🔄 New Build: " + response.buildId);
-                            Log.i(TAG, "📝 Patch Notes: " + response.patchNotes);
-                            showUpdateAvailableNotification(response);
-                        } else if (response.isUpToDate()) {
-                            Log.i(TAG, "✅ System is up to date - No update needed");
-                            showNoUpdateNotification();
-                        } else if (response.isError()) {
-                            Log.w(TAG, "❌ Server returned error: " + response.message);
-                            showUpdateCheckErrorNotification("Server Error: " + response.message);
-                        } else {
-                            Log.w(TAG, "⚠️ Unexpected status: " + response.status);
-                            showUpdateCheckErrorNotification("Unexpected response: " + response.status);
-                        }
-                        Log.i(TAG, "=================================");
-                    } else {
-                        Log.e(TAG, "❌ Update check failed - API returned null response");
-                        showUpdateCheckErrorNotification("API request failed");
-                    }
-                } catch (Exception e) {
-                    long checkDuration = System.currentTimeMillis() - checkStartTime;
-                    Log.e(TAG, "Update check failed after " + checkDuration + "ms: " + e.getMessage(), e);
-                    Log.e(TAG, "Exception class: " + e.getClass().getName());
-                    Log.e(TAG, "Stack trace:", e);
-                    showUpdateCheckErrorNotification("Exception: " + e.getMessage());
+        final long checkStartTime = System.currentTimeMillis();
+        UpdateChecker.checkForUpdateAsync().whenComplete((response, error) -> {
+            long checkDuration = System.currentTimeMillis() - checkStartTime;
+            OTAApiException failure = OTAApiException.from(error);
+            
+            try {
+                CheckScheduler.onCheckCompleted(MyService.this, response, failure);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to schedule the next update check: " + e.getMessage(), e);
+            }
+            
+            try {
+                if (failure != null) {
+                    Log.e(TAG, "❌ Update check failed after " + checkDuration + "ms: " + failure);
+                    showUpdateCheckErrorNotification(failure.getUserMessage());
+                    return;
                 }
+                Log.i(TAG, "Update check completed in " + checkDuration + "ms");
+                
+                Log.i(TAG, "=== Service Update Check Results ===");
+                Log.i(TAG, "API Status: " + response.status);
+                Log.i(TAG, "Build ID: " + response.buildId);
+                Log.i(TAG, "Package URL: " + response.packageUrl);
                 
-                Log.d(TAG, "Update check thread completed");
+                if (response.isUpdateAvailable()) {
+                    Log.i(TAG, "✓ UPDATE AVAILABLE - Preparing user notification");
+                    Log.i(TAG, "📦 Download URL will be: " + response.getFullPackageUrl());
+                    Log.i(TAG, "🔄 New Build: " + response.buildId);
+                    Log.i(TAG, "📝 Patch Notes: " + response.patchNotes);
+                    showUpdateAvailableNotification(response);
+                } else if (response.isUpToDate()) {
+                    Log.i(TAG, "✅ System is up to date - No update needed");
+                    showNoUpdateNotification();
+                } else if (response.isError()) {
+                    Log.w(TAG, "❌ Server returned error: " + response.message);
+                    showUpdateCheckErrorNotification("Server Error: " + response.message);
+                } else {
+                    Log.w(TAG, "⚠️ Unexpected status: " + response.status);
+                    showUpdateCheckErrorNotification("Unexpected response: " + response.status);
+                }
+                Log.i(TAG, "=================================");
+            } catch (Exception e) {
+                Log.e(TAG, "Handling the update check result failed: " + e.getMessage(), e);
+                showUpdateCheckErrorNotification("Exception: " + e.getMessage());
             }
-        }).start();
+        });
         
-        Log.d(TAG, "Background update check thread launched successfully");
+        Log.d(TAG, "Update check started, the result is handled when it arrives");
     }
 
     /**
@@ -255,6 +259,7 @@ public class MyService extends Service {
                 updateIntent.putExtra("download_url", response.getFullPackageUrl());
                 updateIntent.putExtra("build_id", response.buildId);
                 updateIntent.putExtra("patch_notes", response.patchNotes);
+                updateIntent.putExtra("package_sha256", response.sha256);
                 Log.d(TAG, "Created intent for UpdateActivity with update info");
                 Log.d(TAG, "Intent extras - download_url: " + response.getFullPackageUrl());
                 Log.d(TAG, "Intent extras - build_id: " + response.buildId);
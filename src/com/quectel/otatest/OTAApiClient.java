@@ -5,18 +5,25 @@ import org.json.JSONException;
 import org.json.JSONObject;
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.SocketTimeoutException;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class OTAApiClient {
     private static final String TAG = "OTAApiClient";
     private static final String BASE_URL = "http://10.32.1.11:8000";
     private static final String CHECK_UPDATE_ENDPOINT = "/api/check-update";
-    private static final int TIMEOUT_MS = 10000; // 10 seconds
+    private static final long DEFAULT_DEADLINE_MS = 30000; // 30 seconds for the whole check
     private static final String API_KEY = "YOUR_API_KEY_HERE";
+    private static final CheckResponseCache responseCache = new CheckResponseCache();
     
     public static class UpdateResponse {
         public final String status;
@@ -24,13 +31,28 @@ public class OTAApiClient {
         public final String buildId;
         public final String patchNotes;
         public final String message;
+        public final String sha256;
+        /** Seconds until the server wants the next background check, or -1 if it did not say. */
+        public final long nextCheckSeconds;
         
         public UpdateResponse(String status, String packageUrl, String buildId, String patchNotes, String message) {
+            this(status, packageUrl, buildId, patchNotes, message, null);
+        }
+        
+        public UpdateResponse(String status, String packageUrl, String buildId, String patchNotes, String message,
+                String sha256) {
+            this(status, packageUrl, buildId, patchNotes, message, sha256, -1);
+        }
+        
+        public UpdateResponse(String status, String packageUrl, String buildId, String patchNotes, String message,
+                String sha256, long nextCheckSeconds) {
             this.status = status;
             this.packageUrl = packageUrl;
             this.buildId = buildId;
             this.patchNotes = patchNotes;
             this.message = message;
+            this.sha256 = sha256;
+            this.nextCheckSeconds = nextCheckSeconds;
         }
         
         public boolean isUpdateAvailable() {
@@ -54,31 +76,196 @@ public class OTAApiClient {
     }
     
     /**
-     * Check for updates using the REST API
+     * Check for updates using the REST API, blocking the calling thread.
      * @param buildId The current build ID to check against
-     * @return UpdateResponse with the server response, or null if request failed
+     * @return UpdateResponse with the server response, an "error" response if the server rejected
+     *         the request, or null if the request failed
      */
     public static UpdateResponse checkForUpdate(String buildId) {
+        try {
+            return checkForUpdateAsync(buildId, DEFAULT_DEADLINE_MS).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return toErrorResponse(OTAApiException.from(e));
+        }
+    }
+    
+    /**
+     * Check for updates on {@link OtaExecutors#NETWORK} without blocking the caller.
+     * Network errors and transient server errors are retried under {@link RetryPolicy#API}
+     * within the deadline, waiting on the timer rather than on a pool thread. Cancelling the
+     * returned future, or missing the deadline, aborts the request. The future fails with an
+     * {@link OTAApiException} telling what went wrong.
+     * @param buildId The current build ID to check against
+     * @param deadlineMs How long the whole call may take, retries included
+     */
+    public static CompletableFuture<UpdateResponse> checkForUpdateAsync(final String buildId, long deadlineMs) {
+        final CheckCall call = new CheckCall(buildId, System.currentTimeMillis() + deadlineMs);
+        withDeadline(call.result, deadlineMs);
+        call.result.whenComplete((response, error) -> {
+            if (error != null) {
+                // Cancelled or timed out from outside: stop the request where it is
+                OtaExecutors.Task<Void> task = call.task.get();
+                if (task != null) {
+                    task.cancel();
+                }
+                HttpURLConnection active = call.connection.get();
+                if (active != null) {
+                    active.disconnect();
+                }
+            }
+        });
+        attempt(call, 1);
+        return call.result;
+    }
+    
+    /** State of one asynchronous check across its attempts. */
+    private static class CheckCall {
+        final String buildId;
+        final long deadline;
+        final CompletableFuture<UpdateResponse> result = new CompletableFuture<>();
+        final AtomicReference<OtaExecutors.Task<Void>> task = new AtomicReference<>();
+        final AtomicReference<HttpURLConnection> connection = new AtomicReference<>();
+        
+        CheckCall(String buildId, long deadline) {
+            this.buildId = buildId;
+            this.deadline = deadline;
+        }
+    }
+    
+    private static void attempt(final CheckCall call, final int attempt) {
+        if (call.result.isDone()) {
+            return;
+        }
+        try {
+            call.task.set(OtaExecutors.NETWORK.submit("check-update", token -> {
+                if (call.result.isDone()) {
+                    return null;
+                }
+                try {
+                    call.result.complete(fetchUpdate(call.buildId, call.deadline, token, call.connection));
+                    RetryPolicy.API.recordSuccess();
+                } catch (OTAApiException e) {
+                    long delay = e.isRetryable() ? RetryPolicy.API.nextDelay(attempt, e.getRetryAfterMs()) : -1;
+                    if (delay < 0 || System.currentTimeMillis() + delay >= call.deadline) {
+                        call.result.completeExceptionally(e);
+                    } else {
+                        Log.w(TAG, "Update check attempt " + attempt + " failed (" + e + "), retrying in " + delay + "ms");
+                        OtaExecutors.schedule(() -> attempt(call, attempt + 1), delay);
+                    }
+                }
+                return null;
+            }));
+        } catch (RejectedExecutionException e) {
+            call.result.completeExceptionally(new OTAApiException(OTAApiException.Kind.INTERNAL,
+                    "Too many network tasks queued", e));
+        }
+    }
+    
+    private static void putIfSet(JSONObject payload, String key, String value) throws JSONException {
+        if (value != null && !value.isEmpty()) {
+            payload.put(key, value);
+        }
+    }
+    
+    /** Fail {@code future} with a TIMEOUT if it is not complete after {@code deadlineMs}. */
+    static <T> CompletableFuture<T> withDeadline(final CompletableFuture<T> future, final long deadlineMs) {
+        final ScheduledFuture<?> timeout = OtaExecutors.schedule(() -> future.completeExceptionally(
+                new OTAApiException(OTAApiException.Kind.TIMEOUT, "No answer within " + deadlineMs + "ms")),
+                deadlineMs);
+        future.whenComplete((value, error) -> timeout.cancel(false));
+        return future;
+    }
+    
+    /** The response the blocking API used to return for {@code e}: an "error" response or null. */
+    static UpdateResponse toErrorResponse(OTAApiException e) {
+        switch (e.getKind()) {
+            case AUTH:
+                return new UpdateResponse("error", null, null, null, "Invalid API key");
+            case SERVER:
+                return new UpdateResponse("error", null, null, null, e.getMessage());
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Send the check-update request through the circuit breaker of the API host.
+     * Connect errors, timeouts and retryable HTTP errors count as failures of the host; any other
+     * answer shows it is up.
+     */
+    private static UpdateResponse fetchUpdate(String buildId, long deadline, OtaExecutors.CancellationToken token,
+            AtomicReference<HttpURLConnection> activeConnection) throws OTAApiException {
+        CircuitBreaker breaker = CircuitBreaker.forUrl(BASE_URL);
+        try {
+            breaker.acquire();
+        } catch (CircuitBreaker.OpenException e) {
+            Log.w(TAG, "Not contacting the update server: " + e.getMessage());
+            throw new OTAApiException(OTAApiException.Kind.CIRCUIT_OPEN, e.getMessage(), e);
+        }
+        try {
+            UpdateResponse response = exchange(buildId, deadline, token, activeConnection);
+            breaker.recordSuccess();
+            return response;
+        } catch (OTAApiException e) {
+            if (e.getKind() == OTAApiException.Kind.CANCELLED) {
+                breaker.recordAbandoned();
+            } else if (e.isRetryable()) {
+                breaker.recordFailure();
+            } else {
+                breaker.recordSuccess();
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Send the check-update request.
+     * The request is conditional on the answer cached for this build ID: a 304 Not Modified
+     * reply returns the cached response without reading a body. Since the check is a POST,
+     * RFC 7232 has a server answer a matching If-None-Match with 412 Precondition Failed, so 412
+     * to a conditional request means the same.
+     * @param token Cancellation of the calling task, or null
+     * @param activeConnection Receives the open connection so another thread can abort it, or null
+     */
+    private static UpdateResponse exchange(String buildId, long deadline, OtaExecutors.CancellationToken token,
+            AtomicReference<HttpURLConnection> activeConnection) throws OTAApiException {
         HttpURLConnection connection = null;
+        boolean bodyConsumed = false;
         
         try {
             Log.i(TAG, "Checking for updates with build ID: " + buildId);
             
-            // Create URL and connection
-            URL url = new URL(BASE_URL + CHECK_UPDATE_ENDPOINT);
-            connection = (HttpURLConnection) url.openConnection();
+            // Create connection
+            connection = HttpTransport.open(BASE_URL + CHECK_UPDATE_ENDPOINT);
+            if (activeConnection != null) {
+                activeConnection.set(connection);
+            }
             
-            // Configure connection
+            // Configure connection, never waiting past the deadline
+            long remaining = Math.max(1, deadline - System.currentTimeMillis());
             connection.setRequestMethod("POST");
             connection.setRequestProperty("Content-Type", "application/json");
             connection.setRequestProperty("Authorization", "Bearer " + API_KEY);
-            connection.setConnectTimeout(TIMEOUT_MS);
-            connection.setReadTimeout(TIMEOUT_MS);
+            connection.setConnectTimeout((int) Math.min(HttpTransport.getConnectTimeoutMs(), remaining));
+            connection.setReadTimeout((int) Math.min(HttpTransport.getReadTimeoutMs(), remaining));
             connection.setDoOutput(true);
             
+            CheckResponseCache.Entry cached = responseCache.get(buildId);
+            if (cached != null) {
+                connection.setRequestProperty("If-None-Match", cached.validator);
+                Log.d(TAG, "Conditional request, If-None-Match: " + cached.validator);
+            }
+            
             // Create JSON payload
             JSONObject payload = new JSONObject();
             payload.put("build_id", buildId);
+            BuildProperties.Snapshot properties = BuildProperties.get();
+            putIfSet(payload, "fingerprint", properties.fingerprint);
+            putIfSet(payload, "device", properties.device);
+            putIfSet(payload, "slot_suffix", properties.slotSuffix);
             String jsonPayload = payload.toString();
             
             Log.d(TAG, "Sending request: " + jsonPayload);
@@ -93,46 +280,74 @@ public class OTAApiClient {
             int responseCode = connection.getResponseCode();
             Log.d(TAG, "Response code: " + responseCode);
             
-            // Read response body
-            String responseBody;
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8))) {
-                    StringBuilder response = new StringBuilder();
-                    String responseLine;
-                    while ((responseLine = br.readLine()) != null) {
-                        response.append(responseLine.trim());
-                    }
-                    responseBody = response.toString();
-                }
-            } else {
-                // Read error response
-                try (BufferedReader br = new BufferedReader(new InputStreamReader(connection.getErrorStream(), StandardCharsets.UTF_8))) {
-                    StringBuilder response = new StringBuilder();
-                    String responseLine;
-                    while ((responseLine = br.readLine()) != null) {
-                        response.append(responseLine.trim());
-                    }
-                    responseBody = response.toString();
+            if (responseCode == HttpURLConnection.HTTP_PRECON_FAILED && cached != null) {
+                // Drain whatever the server sent along, so the connection can be reused
+                readBody(connection.getErrorStream());
+                bodyConsumed = true;
+                Log.i(TAG, "✓ Precondition failed, reusing cached response - Status: " + cached.response.status);
+                return cached.response;
+            }
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // A 304 has no body
+                bodyConsumed = true;
+                if (cached == null) {
+                    throw new OTAApiException(OTAApiException.Kind.SERVER,
+                            "Server replied 304 Not Modified to an unconditional request", responseCode, null);
                 }
+                Log.i(TAG, "✓ Not modified, reusing cached response - Status: " + cached.response.status);
+                return cached.response;
+            }
+            if (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED || responseCode == HttpURLConnection.HTTP_FORBIDDEN) {
+                Log.e(TAG, "Authentication failed: Invalid API key");
+                throw new OTAApiException(OTAApiException.Kind.AUTH, "Invalid API key", responseCode, null);
             }
             
+            // Read response body
+            boolean success = responseCode >= 200 && responseCode < 300;
+            String responseBody = readBody(success ? connection.getInputStream() : connection.getErrorStream());
+            bodyConsumed = true;
             Log.d(TAG, "Response body: " + responseBody);
             
+            if (!success) {
+                String message = "HTTP " + responseCode;
+                try {
+                    message = new JSONObject(responseBody).optString("message", message);
+                } catch (JSONException e) {
+                    // Not every error page is JSON; keep the status code as the message
+                }
+                Log.e(TAG, "Server error " + responseCode + ": " + message);
+                if (cached != null) {
+                    responseCache.invalidate(buildId);
+                }
+                throw new OTAApiException(OTAApiException.Kind.SERVER, message, responseCode, null)
+                        .setRetryAfterMs(RetryPolicy.parseRetryAfter(connection.getHeaderField("Retry-After")));
+            }
+            
             // Parse JSON response
             JSONObject jsonResponse = new JSONObject(responseBody);
             
-            if (responseCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
-                Log.e(TAG, "Authentication failed: Invalid API key");
-                return new UpdateResponse("error", null, null, null, "Invalid API key");
-            }
-            
             String status = jsonResponse.optString("status", "error");
             String packageUrl = jsonResponse.optString("package_url", null);
             String responseBuildId = jsonResponse.optString("build_id", null);
             String patchNotes = jsonResponse.optString("patch_notes", null);
             String message = jsonResponse.optString("message", null);
+            String sha256 = jsonResponse.optString("sha256", null);
+            long nextCheckSeconds = jsonResponse.optLong("next_check_seconds", -1);
+            
+            UpdateResponse updateResponse = new UpdateResponse(status, packageUrl, responseBuildId, patchNotes, message,
+                    sha256, nextCheckSeconds);
             
-            UpdateResponse updateResponse = new UpdateResponse(status, packageUrl, responseBuildId, patchNotes, message);
+            // Prefer the ETag header; fall back to a version the server puts in the body
+            String validator = connection.getHeaderField("ETag");
+            String responseVersion = jsonResponse.optString("response_version", null);
+            if (validator == null && responseVersion != null && !responseVersion.isEmpty()) {
+                validator = "\"" + responseVersion + "\"";
+            }
+            if (validator != null && !updateResponse.isError()) {
+                responseCache.put(buildId, validator, updateResponse);
+            } else if (cached != null) {
+                responseCache.invalidate(buildId);
+            }
             
             Log.i(TAG, "Update check completed - Status: " + status);
             if (updateResponse.isUpdateAvailable()) {
@@ -146,15 +361,34 @@ public class OTAApiClient {
             return updateResponse;
             
         } catch (IOException e) {
+            if (token != null && token.isCancelled()) {
+                throw new OTAApiException(OTAApiException.Kind.CANCELLED, "Update check cancelled", e);
+            }
+            if (e instanceof SocketTimeoutException) {
+                Log.e(TAG, "Timeout during update check: " + e.getMessage());
+                throw new OTAApiException(OTAApiException.Kind.TIMEOUT, "Server did not answer in time", e);
+            }
             Log.e(TAG, "Network error during update check: " + e.getMessage());
-            return null;
+            throw new OTAApiException(OTAApiException.Kind.NETWORK, "Network error: " + e.getMessage(), e);
         } catch (JSONException e) {
             Log.e(TAG, "JSON parsing error: " + e.getMessage());
-            return null;
+            throw new OTAApiException(OTAApiException.Kind.PARSE, "Invalid response: " + e.getMessage(), e);
         } finally {
-            if (connection != null) {
-                connection.disconnect();
+            HttpTransport.release(connection, bodyConsumed);
+        }
+    }
+    
+    private static String readBody(InputStream stream) throws IOException {
+        if (stream == null) {
+            return "";
+        }
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            StringBuilder response = new StringBuilder();
+            String responseLine;
+            while ((responseLine = br.readLine()) != null) {
+                response.append(responseLine.trim());
             }
+            return response.toString();
         }
     }
 }
\ No newline at end of file
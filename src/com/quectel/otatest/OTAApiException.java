@@ -0,0 +1,126 @@
+package com.quectel.otatest;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Typed failure of an OTA server call, so callers can tell a dead network from a rejected API
+ * key or a broken server instead of getting null.
+ */
+public class OTAApiException extends Exception {
+    private static final long serialVersionUID = 1L;
+    
+    public enum Kind {
+        /** Could not connect, or the connection broke. */
+        NETWORK,
+        /** The call did not finish within its deadline. */
+        TIMEOUT,
+        /** The server rejected the API key (401/403). */
+        AUTH,
+        /** The server answered with an HTTP error status. */
+        SERVER,
+        /** The response body was not the JSON we expect. */
+        PARSE,
+        /** The server failed repeatedly and calls to it are paused for a while. */
+        CIRCUIT_OPEN,
+        /** The caller cancelled the call. */
+        CANCELLED,
+        /** Anything else, e.g. the network pool was saturated. */
+        INTERNAL
+    }
+    
+    private final Kind kind;
+    private final int httpCode;
+    private long retryAfterMs = -1;
+    
+    public OTAApiException(Kind kind, String message) {
+        this(kind, message, -1, null);
+    }
+    
+    public OTAApiException(Kind kind, String message, Throwable cause) {
+        this(kind, message, -1, cause);
+    }
+    
+    public OTAApiException(Kind kind, String message, int httpCode, Throwable cause) {
+        super(message, cause);
+        this.kind = kind;
+        this.httpCode = httpCode;
+    }
+    
+    public Kind getKind() {
+        return kind;
+    }
+    
+    /** HTTP status of the response, or -1 if there was none. */
+    public int getHttpCode() {
+        return httpCode;
+    }
+    
+    /** How long the server asked us to wait before trying again, or -1. */
+    public long getRetryAfterMs() {
+        return retryAfterMs;
+    }
+    
+    OTAApiException setRetryAfterMs(long retryAfterMs) {
+        this.retryAfterMs = retryAfterMs;
+        return this;
+    }
+    
+    /** Whether the same call may succeed later: network trouble or a transient server error. */
+    public boolean isRetryable() {
+        switch (kind) {
+            case NETWORK:
+            case TIMEOUT:
+                return true;
+            case SERVER:
+                return RetryPolicy.isRetryableStatus(httpCode);
+            default:
+                return false;
+        }
+    }
+    
+    /** Short description of the failure for notifications and dialogs. */
+    public String getUserMessage() {
+        switch (kind) {
+            case NETWORK:
+                return "Could not connect to server. Please check your connection and try again.";
+            case TIMEOUT:
+                return "The update server did not answer in time.";
+            case AUTH:
+                return "Invalid API key";
+            case SERVER:
+                return "Server Error: " + getMessage();
+            case PARSE:
+                return "Invalid response from the update server.";
+            case CIRCUIT_OPEN:
+                return "The update server is unavailable. Please try again later.";
+            default:
+                return getMessage();
+        }
+    }
+    
+    /**
+     * The OTAApiException behind a failed future, unwrapping CompletionException and
+     * ExecutionException and classifying anything else.
+     * @return null if {@code error} is null
+     */
+    public static OTAApiException from(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        if (error == null || error instanceof OTAApiException) {
+            return (OTAApiException) error;
+        }
+        if (error instanceof CancellationException) {
+            return new OTAApiException(Kind.CANCELLED, "Cancelled", error);
+        }
+        return new OTAApiException(Kind.INTERNAL, String.valueOf(error.getMessage()), error);
+    }
+    
+    @Override
+    public String toString() {
+        return kind + (httpCode > 0 ? " (HTTP " + httpCode + ")" : "") + ": " + getMessage();
+    }
+}
\ No newline at end of file
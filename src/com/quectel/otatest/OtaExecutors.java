@@ -0,0 +1,303 @@
+package com.quectel.otatest;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide thread pools for the OTA flow, replacing ad-hoc {@code new Thread()} calls.
+ *
+ * Work is split by what it waits on: {@link #NETWORK} for API calls and whole downloads,
+ * {@link #TRANSFER} for the parallel segments of a download, {@link #DISK} for staging, parsing
+ * and other file work, and {@link #cpu()} for hash verification. Every pool is bounded in threads
+ * and queue length, runs named threads at background priority, and records queue depth and
+ * latency. Tasks get a {@link CancellationToken} they are expected to poll. {@link #schedule}
+ * runs short timed actions such as call deadlines on a single timer thread. The pools also work
+ * on a plain JVM, for {@link SimulatedUpdateEngine} benchmarks, where priorities are left alone.
+ */
+public final class OtaExecutors {
+    private static final String TAG = "OtaExecutors";
+    private static final long KEEP_ALIVE_SECONDS = 30;
+    /** Queue waits above this are logged; they mean a pool is saturated. */
+    private static final long SLOW_QUEUE_WAIT_MS = 1000;
+    
+    public static final Pool NETWORK = new Pool("ota-net", 4, 16);
+    public static final Pool TRANSFER = new Pool("ota-transfer", DownloadManager.MAX_SEGMENT_COUNT, 32);
+    public static final Pool DISK = new Pool("ota-disk", 2, 16);
+    
+    private static final int CPU_PARALLELISM = Runtime.getRuntime().availableProcessors();
+    private static volatile ForkJoinPool cpuPool;
+    
+    private static final ScheduledThreadPoolExecutor timer = newTimer();
+    
+    private OtaExecutors() {
+    }
+    
+    /**
+     * Run {@code action} on the timer thread after {@code delayMs}. Actions must be short and must
+     * not block; anything longer should submit to one of the pools.
+     */
+    public static ScheduledFuture<?> schedule(Runnable action, long delayMs) {
+        return timer.schedule(action, delayMs, TimeUnit.MILLISECONDS);
+    }
+    
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "ota-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+    
+    /** Fork-join pool for CPU-bound verification, one background worker per core. */
+    public static ForkJoinPool cpu() {
+        if (cpuPool == null) {
+            synchronized (OtaExecutors.class) {
+                if (cpuPool == null) {
+                    AtomicInteger count = new AtomicInteger();
+                    cpuPool = new ForkJoinPool(CPU_PARALLELISM,
+                            pool -> new CpuWorker(pool, "ota-cpu-" + count.incrementAndGet()), null, false);
+                }
+            }
+        }
+        return cpuPool;
+    }
+    
+    /** Fork-join worker that drops to background priority before it runs any task. */
+    private static final class CpuWorker extends ForkJoinWorkerThread {
+        CpuWorker(ForkJoinPool pool, String name) {
+            super(pool);
+            setName(name);
+        }
+        
+        @Override
+        protected void onStart() {
+            super.onStart();
+            setBackgroundPriority();
+        }
+    }
+    
+    private static void setBackgroundPriority() {
+        if (OtaLog.ON_DEVICE) {
+            android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        }
+    }
+    
+    /** Metrics of all pools, for logging. */
+    public static String dumpStats() {
+        ForkJoinPool cpu = cpuPool;
+        return NETWORK.getStats() + "\n" + TRANSFER.getStats() + "\n" + DISK.getStats() + "\n"
+                + (cpu == null ? "ota-cpu: not started" : "ota-cpu: parallelism=" + cpu.getParallelism()
+                + " active=" + cpu.getActiveThreadCount() + " queued=" + cpu.getQueuedSubmissionCount()
+                + " steals=" + cpu.getStealCount());
+    }
+    
+    /** Set when a task is cancelled; long-running tasks poll it at convenient points. */
+    public static final class CancellationToken {
+        private volatile boolean cancelled;
+        
+        public boolean isCancelled() {
+            return cancelled;
+        }
+        
+        public void throwIfCancelled() {
+            if (cancelled) {
+                throw new CancellationException();
+            }
+        }
+    }
+    
+    /** Work that can observe cancellation. */
+    public interface CancellableCallable<T> {
+        T call(CancellationToken token) throws Exception;
+    }
+    
+    /** Handle for a submitted task. */
+    public static final class Task<T> {
+        private final String name;
+        private final CancellationToken token = new CancellationToken();
+        private final CountDownLatch finished = new CountDownLatch(1);
+        /** Claimed by whoever decides the task's fate first: its worker or {@link #cancel}. */
+        private final AtomicBoolean claimed = new AtomicBoolean();
+        private final FutureTask<T> future;
+        
+        private Task(String name, Callable<T> body) {
+            this.name = name;
+            this.future = new FutureTask<>(body);
+        }
+        
+        public String getName() {
+            return name;
+        }
+        
+        /** Ask the task to stop. A task that has not started yet never runs. */
+        public void cancel() {
+            token.cancelled = true;
+            if (claimed.compareAndSet(false, true)) {
+                future.cancel(false);
+                finished.countDown();
+            }
+        }
+        
+        public boolean isCancelled() {
+            return token.isCancelled();
+        }
+        
+        public boolean isDone() {
+            return future.isDone();
+        }
+        
+        /** Wait for the result. */
+        public T get() throws InterruptedException, ExecutionException {
+            finished.await();
+            return future.get();
+        }
+        
+        /**
+         * Wait until the task has stopped running, whether it completed, failed or was cancelled.
+         * Unlike {@link #get()} on a cancelled future this does not return while the body runs.
+         */
+        public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            return finished.await(timeout, unit);
+        }
+    }
+    
+    /** A bounded thread pool with metrics. */
+    public static final class Pool {
+        private final String name;
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong submitted = new AtomicLong();
+        private final AtomicLong completed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong cancelled = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+        private final AtomicLong totalQueueWaitMs = new AtomicLong();
+        private final AtomicLong maxQueueWaitMs = new AtomicLong();
+        private final AtomicLong totalRunMs = new AtomicLong();
+        private final AtomicLong maxRunMs = new AtomicLong();
+        
+        Pool(String name, int threads, int queueCapacity) {
+            this.name = name;
+            AtomicInteger count = new AtomicInteger();
+            ThreadFactory factory = runnable -> {
+                Thread thread = new Thread(() -> {
+                    setBackgroundPriority();
+                    runnable.run();
+                }, name + "-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity), factory, new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+        }
+        
+        /** Run {@code body} on this pool. Nobody waits on the result, so failures are logged here. */
+        public Task<Void> execute(String taskName, Runnable body) {
+            return submit(taskName, token -> {
+                try {
+                    body.run();
+                } catch (RuntimeException | Error e) {
+                    OtaLog.e(TAG, name + ": " + taskName + " failed", e);
+                    throw e;
+                }
+                return null;
+            });
+        }
+        
+        /**
+         * Submit a task.
+         * @throws java.util.concurrent.RejectedExecutionException if the pool and its queue are full
+         */
+        public <T> Task<T> submit(String taskName, CancellableCallable<T> body) {
+            long enqueuedAt = System.currentTimeMillis();
+            AtomicReference<Task<T>> self = new AtomicReference<>();
+            Task<T> task = new Task<>(taskName, () -> {
+                long startedAt = System.currentTimeMillis();
+                record(totalQueueWaitMs, maxQueueWaitMs, startedAt - enqueuedAt);
+                if (startedAt - enqueuedAt > SLOW_QUEUE_WAIT_MS) {
+                    OtaLog.w(TAG, name + ": " + taskName + " waited " + (startedAt - enqueuedAt) + "ms in queue");
+                }
+                String threadName = Thread.currentThread().getName();
+                Thread.currentThread().setName(threadName + " " + taskName);
+                try {
+                    T result = body.call(self.get().token);
+                    completed.incrementAndGet();
+                    return result;
+                } catch (CancellationException e) {
+                    cancelled.incrementAndGet();
+                    throw e;
+                } catch (Exception | Error e) {
+                    failed.incrementAndGet();
+                    throw e;
+                } finally {
+                    record(totalRunMs, maxRunMs, System.currentTimeMillis() - startedAt);
+                    Thread.currentThread().setName(threadName);
+                }
+            });
+            self.set(task);
+            
+            Runnable runner = () -> {
+                if (!task.claimed.compareAndSet(false, true)) {
+                    cancelled.incrementAndGet();
+                    return;
+                }
+                try {
+                    task.future.run();
+                } finally {
+                    task.finished.countDown();
+                }
+            };
+            submitted.incrementAndGet();
+            try {
+                executor.execute(runner);
+            } catch (RuntimeException e) {
+                rejected.incrementAndGet();
+                OtaLog.e(TAG, name + ": rejected " + taskName + ", " + getStats());
+                throw e;
+            }
+            maxQueueDepth.accumulateAndGet(executor.getQueue().size(), Math::max);
+            return task;
+        }
+        
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+        
+        public int getActiveCount() {
+            return executor.getActiveCount();
+        }
+        
+        public String getStats() {
+            long done = Math.max(1, completed.get() + failed.get() + cancelled.get());
+            return name + ": active=" + executor.getActiveCount() + "/" + executor.getMaximumPoolSize()
+                    + " queued=" + executor.getQueue().size() + " (max " + maxQueueDepth.get() + ")"
+                    + " submitted=" + submitted.get() + " completed=" + completed.get()
+                    + " failed=" + failed.get() + " cancelled=" + cancelled.get() + " rejected=" + rejected.get()
+                    + " wait avg/max=" + (totalQueueWaitMs.get() / done) + "/" + maxQueueWaitMs.get() + "ms"
+                    + " run avg/max=" + (totalRunMs.get() / done) + "/" + maxRunMs.get() + "ms";
+        }
+        
+        private static void record(AtomicLong total, AtomicLong max, long value) {
+            total.addAndGet(value);
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,65 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+/**
+ * Logging for the classes that also run on a plain JVM, such as {@link SimulatedUpdateEngine}
+ * and {@link OtaExecutors}.
+ *
+ * On a device this is android.util.Log. Elsewhere the android.jar stubs throw "Stub!", so lines
+ * go to stderr in logcat's brief format instead, e.g. {@code I/OtaExecutors: ...}.
+ */
+final class OtaLog {
+    /** Whether this is the Android runtime, where android.* classes are real. */
+    static final boolean ON_DEVICE = "Dalvik".equals(System.getProperty("java.vm.name"));
+    
+    private OtaLog() {
+    }
+    
+    static void d(String tag, String message) {
+        if (ON_DEVICE) {
+            Log.d(tag, message);
+        } else {
+            print('D', tag, message, null);
+        }
+    }
+    
+    static void i(String tag, String message) {
+        if (ON_DEVICE) {
+            Log.i(tag, message);
+        } else {
+            print('I', tag, message, null);
+        }
+    }
+    
+    static void w(String tag, String message) {
+        if (ON_DEVICE) {
+            Log.w(tag, message);
+        } else {
+            print('W', tag, message, null);
+        }
+    }
+    
+    static void e(String tag, String message) {
+        if (ON_DEVICE) {
+            Log.e(tag, message);
+        } else {
+            print('E', tag, message, null);
+        }
+    }
+    
+    static void e(String tag, String message, Throwable error) {
+        if (ON_DEVICE) {
+            Log.e(tag, message, error);
+        } else {
+            print('E', tag, message, error);
+        }
+    }
+    
+    private static void print(char level, String tag, String message, Throwable error) {
+        System.err.println(level + "/" + tag + ": " + message);
+        if (error != null) {
+            error.printStackTrace();
+        }
+    }
+}
\ No newline at end of file
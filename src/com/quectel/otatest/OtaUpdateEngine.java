@@ -0,0 +1,42 @@
+package com.quectel.otatest;
+
+import android.os.SystemProperties;
+
+/**
+ * The update_engine operations UpdateManager uses, so the apply step can run against the real
+ * service on a device or against {@link SimulatedUpdateEngine} anywhere else.
+ *
+ * The contract follows android.os.UpdateEngine: binding reports the current status right away,
+ * callbacks arrive on an engine thread, and a payload can only be applied while the engine is idle.
+ */
+public interface OtaUpdateEngine {
+    /** Set to true to install through {@link SimulatedUpdateEngine} instead of update_engine. */
+    String SIMULATE_PROPERTY = "persist.sys.ota.simulate_engine";
+    
+    /**
+     * Start receiving status callbacks; the current status is reported right away.
+     * @return false if the engine could not be reached
+     */
+    boolean bind(UpdateEngineListener listener);
+    
+    boolean unbind();
+    
+    /**
+     * Apply the payload at {@code offset} and {@code size} within {@code url}.
+     * @param headerKeyValuePairs the lines of payload_properties.txt, e.g. FILE_HASH=...
+     */
+    void applyPayload(String url, long offset, long size, String[] headerKeyValuePairs);
+    
+    void cancel();
+    
+    /** Return to IDLE after an applied update, so another payload can be applied. */
+    void resetStatus();
+    
+    /** The engine selected by {@link #SIMULATE_PROPERTY}. */
+    static OtaUpdateEngine create() {
+        if (SystemProperties.getBoolean(SIMULATE_PROPERTY, false)) {
+            return new SimulatedUpdateEngine();
+        }
+        return new FrameworkUpdateEngine();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Set;
+
+/**
+ * Moves the update package between locations and fixes its permissions without shelling out.
+ *
+ * A move within one filesystem is a single atomic rename. Across filesystems (for example onto
+ * FUSE-backed emulated storage) the file is copied in chunks with FileChannel.transferTo into a
+ * temporary file next to the target, fsynced, renamed into place atomically and only then
+ * removed from the source, so a crash never leaves a partial file under the target name.
+ *
+ * {@link #stage} is the one staging sequence, shared by UpdateActivity and PipelineResumer.
+ */
+public class PackageStager {
+    private static final String TAG = "PackageStager";
+    private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+    private static final String TEMP_SUFFIX = ".staging";
+    
+    /** rw-r--r--, what update_engine needs to read the package. */
+    public static final Set<PosixFilePermission> PACKAGE_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+    /** Where the package is downloaded to and applied from. */
+    public static final String PACKAGE_PATH = "/data/ota_package/update.zip";
+    /** Where {@link #stage} passes the package through on its way back to {@link #PACKAGE_PATH}. */
+    public static final String STAGING_PATH = "/storage/emulated/0/update.zip";
+    /** Set to true to apply straight from {@link #PACKAGE_PATH}, only fixing its permissions. */
+    public static final String SKIP_STAGING_PROPERTY = "persist.sys.ota.skip_staging";
+    
+    /** Told when {@link #stage} moves on to its next step, e.g. to update a progress dialog. */
+    public interface StepListener {
+        void onStep(int percent, String message);
+    }
+    
+    private final ProgressPublisher publisher;
+    
+    /** @param publisher receives copy progress for cross-filesystem moves, or null */
+    public PackageStager(ProgressPublisher publisher) {
+        this.publisher = publisher;
+    }
+    
+    /**
+     * Move {@code source} to {@code target}, replacing any existing target.
+     * @return true if the file was renamed in place, false if it had to be copied
+     */
+    public boolean move(File source, File target) throws IOException {
+        Path from = source.toPath();
+        Path to = target.toPath();
+        if (!Files.isRegularFile(from)) {
+            throw new IOException("Nothing to stage at " + source);
+        }
+        if (from.equals(to)) {
+            return true;
+        }
+        
+        long start = System.currentTimeMillis();
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            Log.i(TAG, "✓ Renamed " + source + " -> " + target + " in " + (System.currentTimeMillis() - start) + "ms");
+            return true;
+        } catch (AtomicMoveNotSupportedException e) {
+            Log.d(TAG, "Different filesystems, copying " + source + " -> " + target);
+        }
+        
+        copy(from, to);
+        Files.delete(from);
+        long elapsed = System.currentTimeMillis() - start;
+        Log.i(TAG, "✓ Copied " + target.length() + " bytes to " + target + " in " + elapsed + "ms");
+        return false;
+    }
+    
+    /**
+     * Prepare {@code packageFile} for update_engine: pass it through {@link #STAGING_PATH} and back,
+     * then make it readable. With {@code skipStaging} only the permissions are fixed.
+     * @param steps told about each step, or null
+     */
+    public void stage(File packageFile, boolean skipStaging, StepListener steps) throws IOException {
+        if (skipStaging) {
+            // Apply straight from /data/ota_package; only the permissions need fixing
+            Log.i(TAG, "Skipping staging, applying from " + packageFile);
+            setPermissions(packageFile, PACKAGE_PERMISSIONS);
+            return;
+        }
+        
+        File stagedFile = new File(STAGING_PATH);
+        move(packageFile, stagedFile);
+        if (steps != null) {
+            steps.onStep(25, "Setting permissions...");
+        }
+        
+        // Emulated storage may not support POSIX modes
+        try {
+            setPermissions(stagedFile, PACKAGE_PERMISSIONS);
+        } catch (IOException | UnsupportedOperationException e) {
+            Log.w(TAG, "Could not set permissions on staged file: " + e.getMessage());
+        }
+        if (steps != null) {
+            steps.onStep(50, "Moving back to installation directory...");
+        }
+        
+        move(stagedFile, packageFile);
+        setPermissions(packageFile, PACKAGE_PERMISSIONS);
+    }
+    
+    /** Set POSIX permissions in process; equivalent to chmod. */
+    public void setPermissions(File file, Set<PosixFilePermission> permissions) throws IOException {
+        Files.setPosixFilePermissions(file.toPath(), permissions);
+        Log.d(TAG, "Permissions of " + file + " set to " + PosixFilePermissions.toString(permissions));
+    }
+    
+    private void copy(Path from, Path to) throws IOException {
+        Path temp = to.resolveSibling(to.getFileName() + TEMP_SUFFIX);
+        try (FileChannel input = FileChannel.open(from, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(temp, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = input.size();
+            long position = 0;
+            while (position < size) {
+                long count = input.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), output);
+                if (count <= 0) {
+                    throw new IOException("Copy stalled at " + position + " of " + size);
+                }
+                position += count;
+                if (publisher != null) {
+                    publisher.update(position, size);
+                }
+            }
+            output.force(true);
+            if (publisher != null) {
+                publisher.complete(size, size);
+            }
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        
+        Files.move(temp, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        syncDirectory(to.getParent());
+    }
+    
+    /** Make the rename durable. Not every filesystem lets a directory be opened for this. */
+    private static void syncDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException | RuntimeException e) {
+            Log.d(TAG, "Directory sync skipped for " + directory + ": " + e.getMessage());
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,242 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of parsed update packages and their payload verification, so re-entering the
+ * install flow after a crash or cancel does not parse and hash an unchanged package again.
+ *
+ * An entry is keyed by the package path and is only used while the package still has the same
+ * length, modification time and fingerprint (a SHA-256 of its first and last bytes, which covers
+ * the payload header and the central directory). Any mismatch, a missing package, a corrupt
+ * entry or a new cache format drops the entry. A package only counts as verified after a
+ * successful verification; failures are never cached. At most {@link #MAX_ENTRIES} packages are
+ * kept, least recently used first out.
+ *
+ * The payload manifest itself is not stored: it is decoded again from the cached payload offset
+ * with one bounded read, which costs milliseconds where parsing and hashing cost seconds.
+ */
+class ParsedUpdateCache {
+    private static final String TAG = "ParsedUpdateCache";
+    private static final String DEFAULT_DIR = "/data/ota_package/.parse_cache";
+    private static final String SUFFIX = ".entry";
+    private static final int VERSION = 1;
+    private static final int MAX_ENTRIES = 4;
+    private static final int FINGERPRINT_HEAD = 64 * 1024;
+    private static final int FINGERPRINT_TAIL = 64 * 1024;
+    
+    private final File directory;
+    
+    ParsedUpdateCache() {
+        this(new File(DEFAULT_DIR));
+    }
+    
+    ParsedUpdateCache(File directory) {
+        this.directory = directory;
+    }
+    
+    /** Identity of a package file at one point in time. */
+    static class Key {
+        final String path;
+        final long length;
+        final long lastModified;
+        final String fingerprint;
+        
+        private Key(String path, long length, long lastModified, String fingerprint) {
+            this.path = path;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+        
+        /** Stat the file and fingerprint its head and tail. */
+        static Key of(File file) throws IOException {
+            String path = file.getAbsolutePath();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                long length = channel.size();
+                MessageDigest digest = newDigest();
+                ByteBuffer buffer = ByteBuffer.allocate(FINGERPRINT_HEAD + FINGERPRINT_TAIL);
+                buffer.limit((int) Math.min(FINGERPRINT_HEAD, length));
+                readFully(channel, buffer, 0);
+                long tailStart = Math.max(buffer.position(), length - FINGERPRINT_TAIL);
+                buffer.limit(buffer.position() + (int) (length - tailStart));
+                readFully(channel, buffer, tailStart);
+                buffer.flip();
+                digest.update(buffer);
+                return new Key(path, length, file.lastModified(),
+                        StreamingDigest.hex(digest.digest()));
+            }
+        }
+        
+        boolean matches(String path, long length, long lastModified, String fingerprint) {
+            return this.path.equals(path) && this.length == length
+                    && this.lastModified == lastModified && this.fingerprint.equals(fingerprint);
+        }
+    }
+    
+    /** A cached parse result. */
+    static class Entry {
+        final UpdateParser.ParsedUpdate update;
+        /** Whether the payload already passed {@link PayloadVerifier}. */
+        final boolean verified;
+        
+        Entry(UpdateParser.ParsedUpdate update, boolean verified) {
+            this.update = update;
+            this.verified = verified;
+        }
+    }
+    
+    /**
+     * Look up the package identified by {@code key}.
+     * @return the cached entry, or null if there is none or it no longer describes the file
+     */
+    Entry get(Key key) {
+        File entryFile = entryFile(key.path);
+        Map<String, String> values = new HashMap<>();
+        List<String> props = new ArrayList<>();
+        Map<String, String> metadata = new HashMap<>();
+        if (!read(entryFile, values, props, metadata)) {
+            return null;
+        }
+        
+        try {
+            if (Integer.parseInt(values.get("version")) != VERSION
+                    || !key.matches(values.get("path"), Long.parseLong(values.get("length")),
+                            Long.parseLong(values.get("mtime")), values.get("fingerprint"))) {
+                Log.i(TAG, "Package changed since it was cached, dropping entry for " + key.path);
+                entryFile.delete();
+                return null;
+            }
+            long offset = Long.parseLong(values.get("offset"));
+            long size = Long.parseLong(values.get("size"));
+            PayloadManifest manifest = UpdateParser.parseManifest(new File(key.path), offset, size);
+            UpdateParser.ParsedUpdate update = new UpdateParser.ParsedUpdate(values.get("url"), offset, size,
+                    props.toArray(new String[0]), manifest, metadata);
+            boolean verified = Boolean.parseBoolean(values.get("verified"));
+            
+            entryFile.setLastModified(System.currentTimeMillis());
+            Log.i(TAG, "Cache hit for " + key.path + (verified ? " (verified)" : ""));
+            return new Entry(update, verified);
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Dropping unusable cache entry " + entryFile + ": " + e.getMessage());
+            entryFile.delete();
+            return null;
+        }
+    }
+    
+    /** Record a parse result, replacing any entry for the same path. */
+    void put(Key key, UpdateParser.ParsedUpdate update, boolean verified) {
+        StringBuilder body = new StringBuilder();
+        body.append("version=").append(VERSION).append('\n');
+        body.append("path=").append(key.path).append('\n');
+        body.append("length=").append(key.length).append('\n');
+        body.append("mtime=").append(key.lastModified).append('\n');
+        body.append("fingerprint=").append(key.fingerprint).append('\n');
+        body.append("url=").append(update.mUrl).append('\n');
+        body.append("offset=").append(update.mOffset).append('\n');
+        body.append("size=").append(update.mSize).append('\n');
+        body.append("verified=").append(verified).append('\n');
+        for (String prop : update.mProps) {
+            body.append("prop=").append(prop).append('\n');
+        }
+        for (Map.Entry<String, String> meta : update.mMetadata.entrySet()) {
+            body.append("meta=").append(meta.getKey()).append('=').append(meta.getValue()).append('\n');
+        }
+        
+        try {
+            if (!directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            new AtomicStateFile(entryFile(key.path)).write(body.toString());
+            Log.d(TAG, "Cached " + key.path + (verified ? " (verified)" : ""));
+            trim();
+        } catch (IOException e) {
+            // The cache is an optimization; installing must not fail because of it
+            Log.w(TAG, "Failed to cache " + key.path + ": " + e.getMessage());
+        }
+    }
+    
+    /** Forget the package at {@code path}, e.g. after it was installed or deleted. */
+    void invalidate(String path) {
+        entryFile(path).delete();
+    }
+    
+    private void trim() {
+        File[] entries = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (entries == null || entries.length <= MAX_ENTRIES) {
+            return;
+        }
+        Arrays.sort(entries, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+        for (int i = MAX_ENTRIES; i < entries.length; i++) {
+            Log.d(TAG, "Evicting " + entries[i].getName());
+            entries[i].delete();
+        }
+    }
+    
+    private File entryFile(String path) {
+        String name = StreamingDigest.hex(newDigest().digest(path.getBytes(StandardCharsets.UTF_8))).substring(0, 16);
+        return new File(directory, name + SUFFIX);
+    }
+    
+    private static boolean read(File entryFile, Map<String, String> values, List<String> props,
+            Map<String, String> metadata) {
+        List<String> lines = new AtomicStateFile(entryFile).read();
+        if (lines == null) {
+            // Missing, or unreadable and already logged; a broken entry is dropped
+            entryFile.delete();
+            return false;
+        }
+        
+        for (String line : lines) {
+            int split = line.indexOf('=');
+            if (split < 0) {
+                continue;
+            }
+            String key = line.substring(0, split);
+            String value = line.substring(split + 1);
+            if (key.equals("prop")) {
+                props.add(value);
+            } else if (key.equals("meta")) {
+                int metaSplit = value.indexOf('=');
+                if (metaSplit > 0) {
+                    metadata.put(value.substring(0, metaSplit), value.substring(metaSplit + 1));
+                }
+            } else {
+                values.put(key, value);
+            }
+        }
+        return true;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, position);
+            if (count < 0) {
+                throw new IOException("Unexpected end of file at " + position);
+            }
+            position += count;
+        }
+    }
+    
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,424 @@
+package com.quectel.otatest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Header and DeltaArchiveManifest of a payload.bin, decoded without update_engine.
+ *
+ * Only the header region is read: the 24 byte "CrAU" header followed by the protobuf manifest.
+ * The decoder understands the subset of update_metadata.proto needed to describe the package
+ * (partitions, their sizes and operations) and skips every other field.
+ */
+class PayloadManifest {
+    private static final int MAGIC = 0x43724155; // "CrAU"
+    private static final int HEADER_SIZE_V1 = 20;
+    private static final int HEADER_SIZE_V2 = 24;
+    private static final long MAX_MANIFEST_SIZE = 64L * 1024 * 1024;
+    private static final int MAX_SIGNATURE_SIZE = 64 * 1024;
+    private static final int FULL_PAYLOAD_MINOR_VERSION = 0;
+    private static final int DEFAULT_BLOCK_SIZE = 4096;
+    
+    // DeltaArchiveManifest fields
+    private static final int MANIFEST_BLOCK_SIZE = 3;
+    private static final int MANIFEST_SIGNATURES_OFFSET = 4;
+    private static final int MANIFEST_SIGNATURES_SIZE = 5;
+    private static final int MANIFEST_MINOR_VERSION = 12;
+    private static final int MANIFEST_PARTITIONS = 13;
+    private static final int MANIFEST_MAX_TIMESTAMP = 14;
+    private static final int MANIFEST_PARTIAL_UPDATE = 16;
+    private static final int MANIFEST_SECURITY_PATCH_LEVEL = 18;
+    // PartitionUpdate fields
+    private static final int PARTITION_NAME = 1;
+    private static final int PARTITION_OLD_INFO = 6;
+    private static final int PARTITION_NEW_INFO = 7;
+    private static final int PARTITION_OPERATIONS = 8;
+    private static final int PARTITION_ESTIMATE_COW_SIZE = 19;
+    // PartitionInfo fields
+    private static final int INFO_SIZE = 1;
+    // InstallOperation fields
+    private static final int OPERATION_TYPE = 1;
+    private static final int OPERATION_DATA_OFFSET = 2;
+    private static final int OPERATION_DATA_LENGTH = 3;
+    private static final int OPERATION_DATA_SHA256 = 8;
+    
+    final long fileFormatVersion;
+    final long manifestSize;
+    final int metadataSignatureSize;
+    /** Offset of the first data blob from the start of payload.bin. */
+    final long dataOffset;
+    final int blockSize;
+    final int minorVersion;
+    final long signaturesOffset;
+    final long signaturesSize;
+    final long maxTimestamp;
+    final boolean partialUpdate;
+    final String securityPatchLevel;
+    final List<Partition> partitions;
+    
+    /** One PartitionUpdate of the manifest. */
+    static class Partition {
+        final String name;
+        /** Size of the source partition for delta updates, or -1 if the manifest has none. */
+        final long oldSize;
+        final long newSize;
+        final long estimateCowSize;
+        final List<Operation> operations;
+        
+        Partition(String name, long oldSize, long newSize, long estimateCowSize, List<Operation> operations) {
+            this.name = name;
+            this.oldSize = oldSize;
+            this.newSize = newSize;
+            this.estimateCowSize = estimateCowSize;
+            this.operations = Collections.unmodifiableList(operations);
+        }
+        
+        int getOperationCount() {
+            return operations.size();
+        }
+        
+        /** Bytes of blob data the operations of this partition read from the payload. */
+        long getDataSize() {
+            long total = 0;
+            for (Operation operation : operations) {
+                total += operation.dataLength;
+            }
+            return total;
+        }
+        
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: old=%d new=%d ops=%d data=%d",
+                    name, oldSize, newSize, operations.size(), getDataSize());
+        }
+    }
+    
+    /** One InstallOperation; data offsets are relative to {@link PayloadManifest#dataOffset}. */
+    static class Operation {
+        final int type;
+        final long dataOffset;
+        final long dataLength;
+        /** SHA-256 of the data blob, or null if the operation carries no hash. */
+        final byte[] dataSha256;
+        
+        Operation(int type, long dataOffset, long dataLength, byte[] dataSha256) {
+            this.type = type;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.dataSha256 = dataSha256;
+        }
+    }
+    
+    private PayloadManifest(long fileFormatVersion, long manifestSize, int metadataSignatureSize,
+            long dataOffset, int blockSize, int minorVersion, long signaturesOffset, long signaturesSize,
+            long maxTimestamp, boolean partialUpdate, String securityPatchLevel, List<Partition> partitions) {
+        this.fileFormatVersion = fileFormatVersion;
+        this.manifestSize = manifestSize;
+        this.metadataSignatureSize = metadataSignatureSize;
+        this.dataOffset = dataOffset;
+        this.blockSize = blockSize;
+        this.minorVersion = minorVersion;
+        this.signaturesOffset = signaturesOffset;
+        this.signaturesSize = signaturesSize;
+        this.maxTimestamp = maxTimestamp;
+        this.partialUpdate = partialUpdate;
+        this.securityPatchLevel = securityPatchLevel;
+        this.partitions = Collections.unmodifiableList(partitions);
+    }
+    
+    /** Whether the payload rewrites whole partitions rather than patching the installed ones. */
+    boolean isFull() {
+        return minorVersion == FULL_PAYLOAD_MINOR_VERSION;
+    }
+    
+    /** Total size of all new partition images. */
+    long getNewSize() {
+        long total = 0;
+        for (Partition partition : partitions) {
+            total += partition.newSize;
+        }
+        return total;
+    }
+    
+    /** Space update_engine estimates it needs for Virtual A/B snapshots. */
+    long getEstimateCowSize() {
+        long total = 0;
+        for (Partition partition : partitions) {
+            total += partition.estimateCowSize;
+        }
+        return total;
+    }
+    
+    int getOperationCount() {
+        int total = 0;
+        for (Partition partition : partitions) {
+            total += partition.operations.size();
+        }
+        return total;
+    }
+    
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s payload v%d (minor %d), %d partitions, %d operations, %d bytes new",
+                isFull() ? "full" : "delta", fileFormatVersion, minorVersion, partitions.size(),
+                getOperationCount(), getNewSize());
+    }
+    
+    /**
+     * Read the header and manifest of the payload stored at {@code payloadOffset} in the source.
+     * Only the header region is read, bounded by the payload size and {@link #MAX_MANIFEST_SIZE}.
+     */
+    static PayloadManifest read(ZipLayout.Source source, long payloadOffset, long payloadSize)
+            throws IOException {
+        if (payloadSize < HEADER_SIZE_V2) {
+            throw new IOException("Payload too small: " + payloadSize);
+        }
+        ByteBuffer header = ByteBuffer.wrap(source.read(payloadOffset, HEADER_SIZE_V2))
+                .order(ByteOrder.BIG_ENDIAN);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Bad payload magic");
+        }
+        long version = header.getLong(4);
+        long manifestSize = header.getLong(12);
+        int headerSize;
+        int signatureSize;
+        if (version == 1) {
+            headerSize = HEADER_SIZE_V1;
+            signatureSize = 0;
+        } else if (version == 2) {
+            headerSize = HEADER_SIZE_V2;
+            signatureSize = header.getInt(20);
+        } else {
+            throw new IOException("Unsupported payload version " + version);
+        }
+        if (manifestSize <= 0 || manifestSize > MAX_MANIFEST_SIZE
+                || signatureSize < 0 || signatureSize > MAX_SIGNATURE_SIZE
+                || headerSize + manifestSize + signatureSize > payloadSize) {
+            throw new IOException("Invalid payload header: manifest " + manifestSize
+                    + ", metadata signature " + signatureSize);
+        }
+        
+        ByteBuffer manifest = ByteBuffer.wrap(source.read(payloadOffset + headerSize, (int) manifestSize));
+        try {
+            return decode(new ProtoReader(manifest), version, manifestSize, signatureSize,
+                    headerSize + manifestSize + signatureSize);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupt payload manifest", e);
+        }
+    }
+    
+    private static PayloadManifest decode(ProtoReader reader, long version, long manifestSize,
+            int signatureSize, long dataOffset) throws IOException {
+        int blockSize = DEFAULT_BLOCK_SIZE;
+        int minorVersion = FULL_PAYLOAD_MINOR_VERSION;
+        long signaturesOffset = -1;
+        long signaturesSize = 0;
+        long maxTimestamp = 0;
+        boolean partialUpdate = false;
+        String securityPatchLevel = null;
+        List<Partition> partitions = new ArrayList<>();
+        
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (tag >>> 3) {
+                case MANIFEST_BLOCK_SIZE:
+                    blockSize = (int) reader.readVarint();
+                    break;
+                case MANIFEST_SIGNATURES_OFFSET:
+                    signaturesOffset = reader.readVarint();
+                    break;
+                case MANIFEST_SIGNATURES_SIZE:
+                    signaturesSize = reader.readVarint();
+                    break;
+                case MANIFEST_MINOR_VERSION:
+                    minorVersion = (int) reader.readVarint();
+                    break;
+                case MANIFEST_PARTITIONS:
+                    partitions.add(decodePartition(reader.readMessage()));
+                    break;
+                case MANIFEST_MAX_TIMESTAMP:
+                    maxTimestamp = reader.readVarint();
+                    break;
+                case MANIFEST_PARTIAL_UPDATE:
+                    partialUpdate = reader.readVarint() != 0;
+                    break;
+                case MANIFEST_SECURITY_PATCH_LEVEL:
+                    securityPatchLevel = reader.readString();
+                    break;
+                default:
+                    reader.skip(tag);
+                    break;
+            }
+        }
+        if (partitions.isEmpty()) {
+            throw new IOException("Payload manifest lists no partitions");
+        }
+        return new PayloadManifest(version, manifestSize, signatureSize, dataOffset, blockSize,
+                minorVersion, signaturesOffset, signaturesSize, maxTimestamp, partialUpdate,
+                securityPatchLevel, partitions);
+    }
+    
+    private static Partition decodePartition(ProtoReader reader) {
+        String name = null;
+        long oldSize = -1;
+        long newSize = 0;
+        long estimateCowSize = 0;
+        List<Operation> operations = new ArrayList<>();
+        
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (tag >>> 3) {
+                case PARTITION_NAME:
+                    name = reader.readString();
+                    break;
+                case PARTITION_OLD_INFO:
+                    oldSize = decodeInfoSize(reader.readMessage());
+                    break;
+                case PARTITION_NEW_INFO:
+                    newSize = decodeInfoSize(reader.readMessage());
+                    break;
+                case PARTITION_OPERATIONS:
+                    operations.add(decodeOperation(reader.readMessage()));
+                    break;
+                case PARTITION_ESTIMATE_COW_SIZE:
+                    estimateCowSize = reader.readVarint();
+                    break;
+                default:
+                    reader.skip(tag);
+                    break;
+            }
+        }
+        if (name == null) {
+            throw new IllegalStateException("Partition without a name");
+        }
+        return new Partition(name, oldSize, newSize, estimateCowSize, operations);
+    }
+    
+    private static long decodeInfoSize(ProtoReader reader) {
+        long size = 0;
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            if ((tag >>> 3) == INFO_SIZE) {
+                size = reader.readVarint();
+            } else {
+                reader.skip(tag);
+            }
+        }
+        return size;
+    }
+    
+    private static Operation decodeOperation(ProtoReader reader) {
+        int type = 0;
+        long dataOffset = 0;
+        long dataLength = 0;
+        byte[] dataSha256 = null;
+        
+        while (reader.hasRemaining()) {
+            int tag = reader.readTag();
+            switch (tag >>> 3) {
+                case OPERATION_TYPE:
+                    type = (int) reader.readVarint();
+                    break;
+                case OPERATION_DATA_OFFSET:
+                    dataOffset = reader.readVarint();
+                    break;
+                case OPERATION_DATA_LENGTH:
+                    dataLength = reader.readVarint();
+                    break;
+                case OPERATION_DATA_SHA256:
+                    dataSha256 = reader.readBytes();
+                    break;
+                default:
+                    reader.skip(tag);
+                    break;
+            }
+        }
+        return new Operation(type, dataOffset, dataLength, dataSha256);
+    }
+    
+    /** Minimal protobuf wire format reader over a buffer; nested messages are zero-copy slices. */
+    private static class ProtoReader {
+        private static final int WIRE_VARINT = 0;
+        private static final int WIRE_FIXED64 = 1;
+        private static final int WIRE_LENGTH_DELIMITED = 2;
+        private static final int WIRE_FIXED32 = 5;
+        
+        private final ByteBuffer buffer;
+        
+        ProtoReader(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        boolean hasRemaining() {
+            return buffer.hasRemaining();
+        }
+        
+        int readTag() {
+            return (int) readVarint();
+        }
+        
+        long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed varint");
+        }
+        
+        ProtoReader readMessage() {
+            int length = readLength();
+            ByteBuffer slice = buffer.slice();
+            slice.limit(length);
+            buffer.position(buffer.position() + length);
+            return new ProtoReader(slice);
+        }
+        
+        byte[] readBytes() {
+            byte[] bytes = new byte[readLength()];
+            buffer.get(bytes);
+            return bytes;
+        }
+        
+        String readString() {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+        
+        void skip(int tag) {
+            switch (tag & 0x7) {
+                case WIRE_VARINT:
+                    readVarint();
+                    break;
+                case WIRE_FIXED64:
+                    buffer.position(buffer.position() + 8);
+                    break;
+                case WIRE_LENGTH_DELIMITED:
+                    int length = readLength();
+                    buffer.position(buffer.position() + length);
+                    break;
+                case WIRE_FIXED32:
+                    buffer.position(buffer.position() + 4);
+                    break;
+                default:
+                    throw new IllegalStateException("Unsupported wire type " + (tag & 0x7));
+            }
+        }
+        
+        private int readLength() {
+            long length = readVarint();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalStateException("Field length " + length + " exceeds message");
+            }
+            return (int) length;
+        }
+    }
+}
\ No newline at end of file
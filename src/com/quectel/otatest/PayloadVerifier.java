@@ -0,0 +1,266 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks every operation blob of a local payload against the data_sha256_hash in its manifest
+ * before the package is handed to update_engine.
+ *
+ * Operations are hashed in parallel on the shared {@link OtaExecutors#cpu()} pool, or on a private
+ * pool when a parallelism is given. Work is split by blob bytes rather than operation count, each
+ * worker reads with positional FileChannel reads into its own direct buffer, and once a corrupt
+ * operation is found no operation after it is hashed, so the reported failure is always the first
+ * corrupt operation in payload order.
+ */
+public class PayloadVerifier {
+    private static final String TAG = "PayloadVerifier";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    /** Below this many blob bytes and operations a task hashes its operations instead of splitting. */
+    private static final long SPLIT_THRESHOLD = 8 * 1024 * 1024;
+    private static final int MAX_LEAF_OPERATIONS = 1024;
+    
+    private final int parallelism;
+    /** Whether verify() creates its own pool of {@code parallelism} threads instead of the shared one. */
+    private final boolean ownPool;
+    private final AtomicLong verifiedBytes = new AtomicLong();
+    
+    public PayloadVerifier() {
+        this.parallelism = OtaExecutors.cpu().getParallelism();
+        this.ownPool = false;
+    }
+    
+    public PayloadVerifier(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+        this.ownPool = true;
+    }
+    
+    /** Bytes hashed so far by the running or last verification. */
+    public long getVerifiedBytes() {
+        return verifiedBytes.get();
+    }
+    
+    /** Outcome of a verification: either every blob matched or the first corrupt operation. */
+    public static class Result {
+        public final boolean valid;
+        public final int operationCount;
+        public final long bytes;
+        public final long elapsedMs;
+        /** Partition and index within it of the first corrupt operation, if any. */
+        public final String partition;
+        public final int operationIndex;
+        public final String expectedSha256;
+        public final String actualSha256;
+        
+        Result(boolean valid, int operationCount, long bytes, long elapsedMs, String partition,
+                int operationIndex, String expectedSha256, String actualSha256) {
+            this.valid = valid;
+            this.operationCount = operationCount;
+            this.bytes = bytes;
+            this.elapsedMs = elapsedMs;
+            this.partition = partition;
+            this.operationIndex = operationIndex;
+            this.expectedSha256 = expectedSha256;
+            this.actualSha256 = actualSha256;
+        }
+        
+        @Override
+        public String toString() {
+            if (valid) {
+                return "verified " + operationCount + " operations, " + bytes + " bytes in " + elapsedMs + " ms";
+            }
+            return "corrupt operation " + partition + "#" + operationIndex + ": expected "
+                    + expectedSha256 + ", got " + actualSha256;
+        }
+    }
+    
+    /** A hashed operation together with its absolute position in the package file. */
+    private static class Blob {
+        final String partition;
+        final int index;
+        final long position;
+        final long length;
+        final byte[] sha256;
+        
+        Blob(String partition, int index, long position, long length, byte[] sha256) {
+            this.partition = partition;
+            this.index = index;
+            this.position = position;
+            this.length = length;
+            this.sha256 = sha256;
+        }
+    }
+    
+    /**
+     * Verify the payload of a parsed local package.
+     * @param file the package the update was parsed from
+     */
+    public Result verify(File file, UpdateParser.ParsedUpdate update) throws IOException {
+        PayloadManifest manifest = update.mManifest;
+        if (manifest == null) {
+            throw new IOException("Update has no payload manifest");
+        }
+        
+        // Flatten to payload order; blobs are laid out by increasing data_offset
+        List<Blob> blobs = new ArrayList<>();
+        long dataStart = update.mOffset + manifest.dataOffset;
+        long dataEnd = update.mOffset + update.mSize;
+        long totalBytes = 0;
+        for (PayloadManifest.Partition partition : manifest.partitions) {
+            for (int i = 0; i < partition.operations.size(); i++) {
+                PayloadManifest.Operation operation = partition.operations.get(i);
+                if (operation.dataLength == 0 || operation.dataSha256 == null) {
+                    continue;
+                }
+                long position = dataStart + operation.dataOffset;
+                if (position + operation.dataLength > dataEnd) {
+                    throw new IOException("Operation " + partition.name + "#" + i + " lies outside the payload");
+                }
+                blobs.add(new Blob(partition.name, i, position, operation.dataLength, operation.dataSha256));
+                totalBytes += operation.dataLength;
+            }
+        }
+        Log.i(TAG, "Verifying " + blobs.size() + " operations (" + totalBytes + " bytes) on "
+                + parallelism + " threads");
+        
+        long[] prefixBytes = new long[blobs.size() + 1];
+        for (int i = 0; i < blobs.size(); i++) {
+            prefixBytes[i + 1] = prefixBytes[i] + blobs.get(i).length;
+        }
+        
+        verifiedBytes.set(0);
+        long start = System.currentTimeMillis();
+        ForkJoinPool pool = ownPool ? new ForkJoinPool(parallelism) : OtaExecutors.cpu();
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            Verification verification = new Verification(channel, blobs, prefixBytes);
+            pool.invoke(new VerifyTask(verification, 0, blobs.size()));
+            
+            long elapsed = System.currentTimeMillis() - start;
+            int first = verification.firstCorrupt.get();
+            if (first == Integer.MAX_VALUE) {
+                Result result = new Result(true, blobs.size(), totalBytes, elapsed, null, -1, null, null);
+                Log.i(TAG, "✓ Payload " + result);
+                return result;
+            }
+            Blob blob = blobs.get(first);
+            Result result = new Result(false, blobs.size(), totalBytes, elapsed, blob.partition, blob.index,
+                    StreamingDigest.hex(blob.sha256), StreamingDigest.hex(verification.actual[first]));
+            Log.e(TAG, "Payload " + result);
+            return result;
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (ownPool) {
+                pool.shutdownNow();
+            }
+        }
+    }
+    
+    /** State shared by the tasks of one verification. */
+    private class Verification {
+        final FileChannel channel;
+        final List<Blob> blobs;
+        final long[] prefixBytes;
+        /** Lowest index of a corrupt blob found so far. */
+        final AtomicInteger firstCorrupt = new AtomicInteger(Integer.MAX_VALUE);
+        final byte[][] actual;
+        final ThreadLocal<MessageDigest> digest = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        final ThreadLocal<ByteBuffer> buffer = ThreadLocal.withInitial(
+                () -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+        
+        Verification(FileChannel channel, List<Blob> blobs, long[] prefixBytes) {
+            this.channel = channel;
+            this.blobs = blobs;
+            this.prefixBytes = prefixBytes;
+            this.actual = new byte[blobs.size()][];
+        }
+        
+        void verify(int index) throws IOException {
+            Blob blob = blobs.get(index);
+            MessageDigest md = digest.get();
+            ByteBuffer scratch = buffer.get();
+            md.reset();
+            
+            long position = blob.position;
+            long end = blob.position + blob.length;
+            while (position < end) {
+                scratch.clear();
+                if (end - position < scratch.capacity()) {
+                    scratch.limit((int) (end - position));
+                }
+                int count = channel.read(scratch, position);
+                if (count < 0) {
+                    throw new IOException("Payload truncated at " + position);
+                }
+                scratch.flip();
+                md.update(scratch);
+                position += count;
+            }
+            verifiedBytes.addAndGet(blob.length);
+            
+            byte[] hash = md.digest();
+            if (!Arrays.equals(hash, blob.sha256)) {
+                actual[index] = hash;
+                firstCorrupt.accumulateAndGet(index, Math::min);
+            }
+        }
+    }
+    
+    /** Verifies blobs [from, to), splitting at the byte midpoint while the range is large. */
+    private static class VerifyTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Verification verification;
+        private final int from;
+        private final int to;
+        
+        VerifyTask(Verification verification, int from, int to) {
+            this.verification = verification;
+            this.from = from;
+            this.to = to;
+        }
+        
+        @Override
+        protected void compute() {
+            if (from >= verification.firstCorrupt.get()) {
+                return;
+            }
+            long[] prefix = verification.prefixBytes;
+            boolean large = prefix[to] - prefix[from] > SPLIT_THRESHOLD;
+            if (to - from > MAX_LEAF_OPERATIONS || (to - from > 1 && large)) {
+                long middle = prefix[from] + (prefix[to] - prefix[from]) / 2;
+                int split = Arrays.binarySearch(prefix, from + 1, to, middle);
+                split = split >= 0 ? split : Math.min(Math.max(-split - 1, from + 1), to - 1);
+                invokeAll(new VerifyTask(verification, from, split), new VerifyTask(verification, split, to));
+                return;
+            }
+            try {
+                for (int i = from; i < to && i < verification.firstCorrupt.get(); i++) {
+                    verification.verify(i);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
\ No newline at end of file
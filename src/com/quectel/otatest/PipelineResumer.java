@@ -0,0 +1,159 @@
+package com.quectel.otatest;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemProperties;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Continues an installation from the last durable {@link UpdatePipeline} stage after the process
+ * or the device restarted, without the user having to start it again.
+ *
+ * A download resumes through its own journal, a downloaded package is hashed instead of fetched
+ * again, a verified package is staged, and a staged or applying package goes back to
+ * update_engine, which keeps its own progress. A stage that was already attempted
+ * {@link UpdatePipeline#MAX_ATTEMPTS} times is given up.
+ */
+final class PipelineResumer {
+    private static final String TAG = "PipelineResumer";
+    /** Boolean extra asking MyService to resume the pipeline instead of checking for updates. */
+    static final String EXTRA_RESUME_PIPELINE = "resume_pipeline";
+    
+    private PipelineResumer() {
+    }
+    
+    /** Resume the pipeline in the background if it stopped in a resumable stage. */
+    static void resume(Context context) {
+        final UpdatePipeline pipeline = UpdatePipeline.getInstance();
+        final UpdatePipeline.Record record = pipeline.current();
+        if (!record.isResumable()) {
+            Log.d(TAG, "Nothing to resume: " + record);
+            return;
+        }
+        if (record.attempts >= UpdatePipeline.MAX_ATTEMPTS) {
+            pipeline.reset("giving up after " + record.attempts + " attempts at " + record.stage);
+            return;
+        }
+        if (!pipeline.claim()) {
+            Log.i(TAG, "Pipeline is already being driven, not resuming");
+            return;
+        }
+        Log.i(TAG, "=== Resuming installation at " + record + " ===");
+        
+        PowerManager powerManager = (PowerManager) context.getSystemService(Context.POWER_SERVICE);
+        final PowerManager.WakeLock wakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK,
+                "OTA:PipelineResumer");
+        final UpdateManager updateManager = new UpdateManager(new Handler(Looper.getMainLooper()), wakeLock);
+        OtaExecutors.NETWORK.execute("resume-pipeline", new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (!continueFrom(pipeline, record, updateManager)) {
+                        pipeline.release();
+                    }
+                } catch (Exception e) {
+                    Log.e(TAG, "Resuming the installation failed: " + e.getMessage(), e);
+                    pipeline.release();
+                }
+            }
+        });
+    }
+    
+    /**
+     * Run the steps after {@code record.stage} up to handing the package to update_engine.
+     * @return true if update_engine took over, which releases the pipeline when it finishes
+     */
+    private static boolean continueFrom(UpdatePipeline pipeline, UpdatePipeline.Record record,
+            UpdateManager updateManager) throws IOException {
+        File packageFile = new File(PackageStager.PACKAGE_PATH);
+        if (record.streaming) {
+            pipeline.advance(record.stage);
+            updateManager.resumeUpdate(releasing(pipeline),
+                    () -> OtaExecutors.NETWORK.execute("resume-stream",
+                            () -> updateManager.performStreamingUpdate(record.packageUrl, releasing(pipeline))));
+            return true;
+        }
+        
+        // Without a hash from the server nothing is verified here; UpdateManager's payload
+        // verification before applying is then the only check, and the journal says DOWNLOADED
+        boolean hashKnown = record.sha256 != null && !record.sha256.isEmpty();
+        // Journal the attempt before running it, so a step that crashes the process is counted
+        UpdatePipeline.Stage stage = pipeline.advance(record.stage).stage;
+        if (stage == UpdatePipeline.Stage.DOWNLOADING) {
+            if (!new DownloadManager().downloadFile(record.packageUrl, PackageStager.PACKAGE_PATH, record.sha256, null)) {
+                Log.w(TAG, "Download did not complete, will resume again later");
+                return false;
+            }
+            // downloadFile checks the SHA-256 before it reports success
+            stage = pipeline.advance(UpdatePipeline.Stage.DOWNLOADED).stage;
+            if (hashKnown) {
+                stage = pipeline.advance(UpdatePipeline.Stage.VERIFIED).stage;
+            }
+        } else if (stage == UpdatePipeline.Stage.DOWNLOADED) {
+            if (!packageFile.exists() || hashKnown && !verify(packageFile, record.sha256)) {
+                packageFile.delete();
+                pipeline.restart("downloaded package is missing or does not match its SHA-256");
+                return false;
+            }
+            if (hashKnown) {
+                stage = pipeline.advance(UpdatePipeline.Stage.VERIFIED).stage;
+            }
+        }
+        
+        if (stage == UpdatePipeline.Stage.VERIFIED || stage == UpdatePipeline.Stage.DOWNLOADED) {
+            new PackageStager(null).stage(packageFile,
+                    SystemProperties.getBoolean(PackageStager.SKIP_STAGING_PROPERTY, false), null);
+            stage = pipeline.advance(UpdatePipeline.Stage.STAGED).stage;
+        }
+        
+        if (stage == UpdatePipeline.Stage.STAGED) {
+            OtaExecutors.DISK.execute("resume-apply", () -> updateManager.performUpdate(releasing(pipeline)));
+            return true;
+        }
+        if (stage == UpdatePipeline.Stage.APPLYING) {
+            updateManager.resumeUpdate(releasing(pipeline),
+                    () -> OtaExecutors.DISK.execute("resume-apply", () -> updateManager.performUpdate(releasing(pipeline))));
+            return true;
+        }
+        return false;
+    }
+    
+    /** Hash the package on disk and compare it with the digest the server announced. */
+    private static boolean verify(File packageFile, String expectedSha256) throws IOException {
+        StreamingDigest digest = new StreamingDigest();
+        try (RandomAccessFile file = new RandomAccessFile(packageFile, "r")) {
+            digest.catchUp(file.getChannel(), file.length());
+            DownloadManager.DownloadResult result = new DownloadManager.DownloadResult(packageFile.getPath(),
+                    file.length(), digest.digest());
+            Log.i(TAG, "SHA-256 of " + packageFile + ": " + result.getSha256Hex());
+            return result.matches(expectedSha256);
+        }
+    }
+    
+    private static UpdateManager.UpdateCallback releasing(final UpdatePipeline pipeline) {
+        return new UpdateManager.UpdateCallback() {
+            @Override
+            public void onProgress(ProgressPublisher.Progress progress) {
+                Log.d(TAG, "Resumed installation progress: " + progress);
+            }
+            
+            @Override
+            public void onSuccess() {
+                Log.i(TAG, "✅ Resumed installation applied, reboot pending");
+                pipeline.release();
+            }
+            
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, "❌ Resumed installation failed: " + error);
+                pipeline.release();
+            }
+        };
+    }
+}
\ No newline at end of file
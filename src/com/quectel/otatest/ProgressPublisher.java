@@ -0,0 +1,159 @@
+package com.quectel.otatest;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Turns high-frequency byte counts into rate-limited progress events.
+ *
+ * An event is published when the percentage has advanced by at least the percent step and the
+ * minimum interval has passed, or when nothing was published for a heartbeat interval so that
+ * throughput and ETA keep refreshing on a slow link. Events are delivered on the given executor;
+ * at most one delivery is queued at a time and it always carries the latest snapshot, so a slow
+ * consumer never builds up a backlog of stale messages.
+ */
+public class ProgressPublisher {
+    public static final long DEFAULT_MIN_INTERVAL_MS = 100;
+    public static final int DEFAULT_PERCENT_STEP = 1;
+    private static final long HEARTBEAT_INTERVAL_MS = 1000;
+    private static final double RATE_SMOOTHING = 0.3;
+    
+    /** An immutable progress snapshot. Rates are in bytes per second, -1 when unknown. */
+    public static class Progress {
+        public final long bytesDone;
+        public final long totalBytes;
+        public final int percent;
+        public final long instantBytesPerSecond;
+        public final long averageBytesPerSecond;
+        public final long etaMillis;
+        /** The update_engine phase this progress belongs to, or null for a transfer. */
+        public final String phase;
+        
+        Progress(long bytesDone, long totalBytes, int percent, long instantBytesPerSecond,
+                long averageBytesPerSecond, long etaMillis) {
+            this(bytesDone, totalBytes, percent, instantBytesPerSecond, averageBytesPerSecond, etaMillis, null);
+        }
+        
+        Progress(long bytesDone, long totalBytes, int percent, long instantBytesPerSecond,
+                long averageBytesPerSecond, long etaMillis, String phase) {
+            this.bytesDone = bytesDone;
+            this.totalBytes = totalBytes;
+            this.percent = percent;
+            this.instantBytesPerSecond = instantBytesPerSecond;
+            this.averageBytesPerSecond = averageBytesPerSecond;
+            this.etaMillis = etaMillis;
+            this.phase = phase;
+        }
+        
+        @Override
+        public String toString() {
+            return (phase != null ? phase + " " : "") + percent + "% (" + bytesDone + "/" + totalBytes + " bytes, "
+                    + String.format("%.2f MB/s", instantBytesPerSecond / 1024.0 / 1024.0)
+                    + ", ETA " + (etaMillis >= 0 ? etaMillis / 1000 + "s" : "unknown") + ")";
+        }
+    }
+    
+    public interface Listener {
+        void onProgress(Progress progress);
+    }
+    
+    private final Executor executor;
+    private final Listener listener;
+    private final long minIntervalMs;
+    private final int percentStep;
+    private final AtomicReference<Progress> pending = new AtomicReference<>();
+    
+    private long startTime = -1;
+    private long startBytes;
+    private long lastEmitTime;
+    private long lastEmitBytes;
+    private int lastPercent = -1;
+    private double smoothedRate = -1;
+    
+    public ProgressPublisher(Executor executor, Listener listener) {
+        this(executor, listener, DEFAULT_MIN_INTERVAL_MS, DEFAULT_PERCENT_STEP);
+    }
+    
+    public ProgressPublisher(Executor executor, Listener listener, long minIntervalMs, int percentStep) {
+        this.executor = executor;
+        this.listener = listener;
+        this.minIntervalMs = minIntervalMs;
+        this.percentStep = percentStep;
+    }
+    
+    /** Executor that runs deliveries on the calling thread. */
+    public static Executor directExecutor() {
+        return Runnable::run;
+    }
+    
+    /**
+     * Record that {@code bytesDone} of {@code totalBytes} are complete. Safe to call from several
+     * threads at any frequency; most calls return without publishing anything.
+     */
+    public void update(long bytesDone, long totalBytes) {
+        publish(bytesDone, totalBytes, false);
+    }
+    
+    /** Publish a final snapshot regardless of the rate limits. */
+    public void complete(long bytesDone, long totalBytes) {
+        publish(bytesDone, totalBytes, true);
+    }
+    
+    private void publish(long bytesDone, long totalBytes, boolean force) {
+        boolean schedule;
+        synchronized (this) {
+            long now = System.nanoTime() / 1000000;
+            if (startTime < 0) {
+                // The first update is the baseline; bytes already present (e.g. a resumed
+                // download) do not count towards the average rate.
+                startTime = now;
+                startBytes = bytesDone;
+                lastEmitTime = now;
+                lastEmitBytes = bytesDone;
+            }
+            
+            if (!force && bytesDone < lastEmitBytes) {
+                // A concurrent writer reported an older total after a newer one was published
+                return;
+            }
+            
+            int percent = totalBytes > 0 ? (int) Math.min(100, bytesDone * 100 / totalBytes) : 0;
+            long sinceEmit = now - lastEmitTime;
+            boolean percentDue = percent >= lastPercent + percentStep && sinceEmit >= minIntervalMs;
+            boolean heartbeatDue = sinceEmit >= HEARTBEAT_INTERVAL_MS;
+            if (!force && lastPercent >= 0 && !percentDue && !heartbeatDue) {
+                return;
+            }
+            
+            long instantRate = -1;
+            if (sinceEmit > 0) {
+                instantRate = (bytesDone - lastEmitBytes) * 1000 / sinceEmit;
+                smoothedRate = smoothedRate < 0 ? instantRate
+                        : RATE_SMOOTHING * instantRate + (1 - RATE_SMOOTHING) * smoothedRate;
+            }
+            long elapsed = now - startTime;
+            long averageRate = elapsed > 0 ? (bytesDone - startBytes) * 1000 / elapsed : -1;
+            long eta = -1;
+            if (totalBytes > 0 && smoothedRate > 0) {
+                eta = (long) ((totalBytes - bytesDone) * 1000 / smoothedRate);
+            } else if (totalBytes > 0 && bytesDone >= totalBytes) {
+                eta = 0;
+            }
+            
+            Progress progress = new Progress(bytesDone, totalBytes, percent, instantRate, averageRate, eta);
+            lastEmitTime = now;
+            lastEmitBytes = bytesDone;
+            lastPercent = Math.max(lastPercent, percent);
+            schedule = pending.getAndSet(progress) == null;
+        }
+        
+        if (schedule) {
+            executor.execute(() -> {
+                Progress latest = pending.getAndSet(null);
+                if (latest != null) {
+                    listener.onProgress(latest);
+                }
+            });
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,102 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Retry policy shared by the update check and the downloader: exponential backoff with full
+ * jitter, a cap on the Retry-After a server may ask for, and a retry budget.
+ *
+ * Retry number n waits a random time between 0 and min(maxDelay, baseDelay * 2^(n-1)), so a fleet
+ * that failed at the same moment does not come back at the same moment. A Retry-After from the
+ * server is a lower bound on the wait. The budget is a token bucket: each retry costs a token and
+ * each successful request earns back a fraction of one, so a device whose requests mostly fail
+ * stops amplifying the load with retries.
+ */
+public class RetryPolicy {
+    private static final String TAG = "RetryPolicy";
+    /** Longer Retry-After values are not waited for; the attempt fails instead. */
+    private static final long MAX_RETRY_AFTER_MS = 5 * 60 * 1000;
+    private static final double BUDGET_TOKENS = 10;
+    private static final double TOKENS_PER_SUCCESS = 0.2;
+    
+    public static final RetryPolicy API = new RetryPolicy("api", 4, 1000, 30 * 1000);
+    public static final RetryPolicy DOWNLOAD = new RetryPolicy("download", 6, 2000, 60 * 1000);
+    
+    private final String name;
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+    private double tokens = BUDGET_TOKENS;
+    
+    public RetryPolicy(String name, int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.name = name;
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMs = baseDelayMs;
+        this.maxDelayMs = maxDelayMs;
+    }
+    
+    /**
+     * Decide whether to retry after failed attempt number {@code attempt} (1 for the first).
+     * @param retryAfterMs what the server asked for, or -1
+     * @return how long to wait before the next attempt, or -1 to give up
+     */
+    public long nextDelay(int attempt, long retryAfterMs) {
+        if (attempt >= maxAttempts) {
+            Log.w(TAG, name + ": giving up after " + attempt + " attempts");
+            return -1;
+        }
+        if (retryAfterMs > MAX_RETRY_AFTER_MS) {
+            Log.w(TAG, name + ": server asked to wait " + retryAfterMs + "ms, giving up instead");
+            return -1;
+        }
+        synchronized (this) {
+            if (tokens < 1) {
+                Log.w(TAG, name + ": retry budget exhausted, not retrying");
+                return -1;
+            }
+            tokens -= 1;
+        }
+        long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        long delay = ThreadLocalRandom.current().nextLong(cap + 1);
+        return Math.max(delay, retryAfterMs);
+    }
+    
+    /** A request succeeded; earn back part of a retry token. */
+    public synchronized void recordSuccess() {
+        tokens = Math.min(BUDGET_TOKENS, tokens + TOKENS_PER_SUCCESS);
+    }
+    
+    /** Whether an HTTP status means the server may accept the same request later. */
+    public static boolean isRetryableStatus(int code) {
+        return code == 408 || code == 429 || (code >= 500 && code != 501 && code != 505);
+    }
+    
+    /**
+     * Parse a Retry-After header: delay-seconds or an HTTP-date.
+     * @return the delay in milliseconds, or -1 if the header is absent or malformed
+     */
+    public static long parseRetryAfter(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return -1;
+        }
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Not delay-seconds, try an HTTP-date
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        try {
+            return Math.max(0, format.parse(value).getTime() - System.currentTimeMillis());
+        } catch (ParseException e) {
+            return -1;
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,614 @@
+package com.quectel.otatest;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An in-process stand-in for update_engine, for running and timing the whole install flow where
+ * there is no update_engine, e.g. on a Linux host against a local server.
+ *
+ * It does what update_engine does with the payload short of writing partitions. It reads the
+ * payload range from a file:// or http(s):// URL and checks the header and the metadata size and
+ * hash from payload_properties.txt. It parses the manifest, hashes every operation blob as it
+ * streams past, and checks the file size and hash at the end. Failures are reported with the
+ * error codes update_engine would use.
+ *
+ * Status follows update_engine: UPDATE_AVAILABLE, DOWNLOADING, VERIFYING, FINALIZING, then
+ * UPDATED_NEED_REBOOT, or REPORTING_ERROR_EVENT and IDLE after a failure. Progress is broadcast
+ * after each percent or every 10 seconds, as update_engine throttles it. Writing, verifying and
+ * postinstall can be paced to a device's speeds, and an error code can be injected at any status
+ * and progress. Callbacks arrive in order on a single engine thread.
+ *
+ * Nothing here touches android.* classes, so it runs on a plain JVM as well; {@link #main}
+ * applies a package there and prints how long each status took.
+ */
+public class SimulatedUpdateEngine implements OtaUpdateEngine {
+    private static final String TAG = "SimulatedUpdateEngine";
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAGIC = 0x43724155; // "CrAU"
+    private static final int HEADER_SIZE_V1 = 20;
+    private static final int HEADER_SIZE_V2 = 24;
+    private static final double BROADCAST_PROGRESS_STEP = 0.01;
+    private static final long BROADCAST_INTERVAL_MS = 10000;
+    private static final int SIMULATED_STEPS = 100;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 30000;
+    
+    // UpdateEngine.UpdateStatusConstants, copied so android.os.UpdateEngine is not needed off-device
+    static final int IDLE = 0;
+    static final int UPDATE_AVAILABLE = 2;
+    static final int DOWNLOADING = 3;
+    static final int VERIFYING = 4;
+    static final int FINALIZING = 5;
+    static final int UPDATED_NEED_REBOOT = 6;
+    static final int REPORTING_ERROR_EVENT = 7;
+    private static final String[] STATUS_NAMES = {"IDLE", "CHECKING_FOR_UPDATE", "UPDATE_AVAILABLE",
+            "DOWNLOADING", "VERIFYING", "FINALIZING", "UPDATED_NEED_REBOOT", "REPORTING_ERROR_EVENT"};
+    
+    // UpdateEngine.ErrorCodeConstants, and the update_engine error codes it does not name
+    static final int SUCCESS = 0;
+    static final int ERROR = 1;
+    static final int DOWNLOAD_TRANSFER_ERROR = 9;
+    static final int PAYLOAD_HASH_MISMATCH_ERROR = 10;
+    static final int PAYLOAD_SIZE_MISMATCH_ERROR = 11;
+    static final int DOWNLOAD_INVALID_METADATA_MAGIC_STRING = 21;
+    static final int DOWNLOAD_METADATA_SIGNATURE_MISMATCH = 26;
+    static final int DOWNLOAD_OPERATION_HASH_MISMATCH = 29;
+    static final int DOWNLOAD_INVALID_METADATA_SIZE = 32;
+    static final int DOWNLOAD_MANIFEST_PARSE_ERROR = 33;
+    static final int USER_CANCELED = 48;
+    
+    private final ExecutorService callbackExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ota-sim-engine-callback");
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private volatile UpdateEngineListener listener;
+    private int status = IDLE;
+    private float progress;
+    private long lastBroadcastTime;
+    private float lastBroadcastProgress;
+    
+    private OtaExecutors.Task<Void> worker;
+    private volatile boolean cancelled;
+    private volatile InputStream activeInput;
+    private volatile HttpURLConnection activeConnection;
+    
+    private volatile long writeBytesPerSecond;
+    private volatile long verifyBytesPerSecond;
+    private volatile long finalizeMs;
+    private int injectedErrorCode;
+    private int injectedStatus;
+    private float injectedProgress;
+    
+    /** Apply as fast as the payload can be read, with an instant verify and postinstall. */
+    public SimulatedUpdateEngine() {
+    }
+    
+    /** Limit how fast payload operations are "written"; 0 for no limit. */
+    public void setWriteRate(long bytesPerSecond) {
+        this.writeBytesPerSecond = bytesPerSecond;
+    }
+    
+    /** Rate at which the new partitions are "hashed" during VERIFYING; 0 for no delay. */
+    public void setVerifyRate(long bytesPerSecond) {
+        this.verifyBytesPerSecond = bytesPerSecond;
+    }
+    
+    /** How long postinstall takes during FINALIZING. */
+    public void setFinalizeMillis(long finalizeMs) {
+        this.finalizeMs = finalizeMs;
+    }
+    
+    /**
+     * Fail the next apply with {@code errorCode} once it reaches {@code atStatus} with at least
+     * {@code atProgress} done. The injection is used up by the apply it fails.
+     */
+    public synchronized void injectError(int errorCode, int atStatus, float atProgress) {
+        this.injectedErrorCode = errorCode;
+        this.injectedStatus = atStatus;
+        this.injectedProgress = atProgress;
+    }
+    
+    @Override
+    public synchronized boolean bind(UpdateEngineListener listener) {
+        this.listener = listener;
+        final int currentStatus = status;
+        final float currentProgress = progress;
+        callbackExecutor.execute(() -> {
+            UpdateEngineListener bound = this.listener;
+            if (bound != null) {
+                bound.onStatusUpdate(currentStatus, currentProgress);
+            }
+        });
+        return true;
+    }
+    
+    @Override
+    public synchronized boolean unbind() {
+        listener = null;
+        return true;
+    }
+    
+    @Override
+    public synchronized void applyPayload(final String url, final long offset, final long size,
+            final String[] headerKeyValuePairs) {
+        if (status == UPDATED_NEED_REBOOT) {
+            throw new IllegalStateException("An update already applied, waiting for reboot");
+        }
+        if (status != IDLE) {
+            throw new IllegalStateException("An update is already in progress");
+        }
+        OtaLog.i(TAG, "Applying " + url + " at " + offset + " (" + size + " bytes)");
+        cancelled = false;
+        // Like the whole-file download it stands in for, the apply holds a network thread throughout
+        worker = OtaExecutors.NETWORK.execute("simulated apply", () -> run(url, offset, size, headerKeyValuePairs));
+        broadcast(UPDATE_AVAILABLE, 0, true);
+    }
+    
+    @Override
+    public void cancel() {
+        synchronized (this) {
+            if (worker == null) {
+                return;
+            }
+            // Not Task.cancel(): an apply that never started would then never report its end
+            cancelled = true;
+        }
+        OtaLog.i(TAG, "Cancelling the update");
+        // The apply checks the flag at each progress report; closing the stream ends a blocking read
+        InputStream input = activeInput;
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException e) {
+                OtaLog.d(TAG, "Closing the payload stream failed: " + e.getMessage());
+            }
+        }
+        HttpURLConnection connection = activeConnection;
+        if (connection != null) {
+            connection.disconnect();
+        }
+    }
+    
+    @Override
+    public synchronized void resetStatus() {
+        if (status != IDLE && status != UPDATED_NEED_REBOOT) {
+            throw new IllegalStateException("Cannot reset status while an update is in progress");
+        }
+        broadcast(IDLE, 0, true);
+    }
+    
+    /**
+     * Benchmark or regression-check an apply on a plain JVM:
+     * {@code SimulatedUpdateEngine <package.zip> [payload url] [runs]}.
+     *
+     * The payload range and payload_properties.txt come from the local package; the payload is
+     * streamed from the URL, e.g. a local server with a copy of the package, or from the package
+     * itself. Each run prints the time spent in every status. The exit code is the error code of
+     * the last run.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 1 || args.length > 3) {
+            System.err.println("Usage: SimulatedUpdateEngine <package.zip> [payload url] [runs]");
+            System.exit(2);
+        }
+        File packageFile = new File(args[0]);
+        String url = args.length > 1 ? args[1] : "file://" + packageFile.getAbsolutePath();
+        int runs = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+        
+        long offset;
+        long size;
+        String[] properties;
+        try (FileChannelSource source = new FileChannelSource(packageFile)) {
+            Map<String, ZipLayout.Entry> entries = ZipLayout.readCentralDirectory(source);
+            ZipLayout.Entry payload = entries.get("payload.bin");
+            ZipLayout.Entry propertiesEntry = entries.get("payload_properties.txt");
+            if (payload == null || propertiesEntry == null || !payload.isStored()) {
+                throw new IOException(packageFile + " has no stored payload.bin and payload_properties.txt");
+            }
+            offset = ZipLayout.dataOffset(source, payload);
+            size = payload.uncompressedSize;
+            properties = new String(ZipLayout.readEntry(source, propertiesEntry), StandardCharsets.UTF_8)
+                    .split("\\r?\\n");
+        }
+        
+        SimulatedUpdateEngine engine = new SimulatedUpdateEngine();
+        int errorCode = ERROR;
+        for (int run = 1; run <= runs; run++) {
+            errorCode = engine.timeApply(url, offset, size, properties, run);
+            if (errorCode == SUCCESS) {
+                engine.resetStatus();
+            }
+        }
+        System.exit(errorCode);
+    }
+    
+    /** Apply once, wait for the result and print how long each status lasted. */
+    private int timeApply(String url, long offset, long size, String[] properties, int run)
+            throws InterruptedException {
+        // Written on the callback thread, read after the latch
+        Map<Integer, Long> enteredAt = new LinkedHashMap<>();
+        int[] result = new int[1];
+        CountDownLatch done = new CountDownLatch(1);
+        long startTime = System.nanoTime();
+        bind(new UpdateEngineListener() {
+            @Override
+            public void onStatusUpdate(int newStatus, float percent) {
+                enteredAt.putIfAbsent(newStatus, System.nanoTime());
+            }
+            
+            @Override
+            public void onPayloadApplicationComplete(int errorCode) {
+                result[0] = errorCode;
+                done.countDown();
+            }
+        });
+        applyPayload(url, offset, size, properties);
+        done.await();
+        long endTime = System.nanoTime();
+        unbind();
+        
+        StringBuilder line = new StringBuilder("run " + run + ":");
+        List<Map.Entry<Integer, Long>> phases = new ArrayList<>(enteredAt.entrySet());
+        for (int i = 0; i < phases.size(); i++) {
+            int phase = phases.get(i).getKey();
+            if (phase == IDLE) {
+                continue;
+            }
+            long until = i + 1 < phases.size() ? phases.get(i + 1).getValue() : endTime;
+            line.append(' ').append(phase < STATUS_NAMES.length ? STATUS_NAMES[phase] : String.valueOf(phase))
+                    .append('=').append((until - phases.get(i).getValue()) / 1000000).append("ms");
+        }
+        long totalMs = Math.max(1, (endTime - startTime) / 1000000);
+        line.append(" total=").append(totalMs).append("ms");
+        if (result[0] == SUCCESS) {
+            line.append(" (").append(size * 1000 / totalMs / (1024 * 1024)).append(" MiB/s)");
+        }
+        line.append(" error=").append(result[0]);
+        System.out.println(line);
+        return result[0];
+    }
+    
+    private void run(String url, long offset, long size, String[] headerKeyValuePairs) {
+        int errorCode = SUCCESS;
+        long startTime = System.currentTimeMillis();
+        try {
+            apply(url, offset, size, headerKeyValuePairs);
+        } catch (EngineError e) {
+            OtaLog.e(TAG, "❌ " + e.getMessage() + " (error " + e.errorCode + ")");
+            errorCode = e.errorCode;
+        } catch (InterruptedException | IOException e) {
+            if (cancelled) {
+                errorCode = USER_CANCELED;
+            } else {
+                OtaLog.e(TAG, "❌ Reading the payload failed: " + e.getMessage());
+                errorCode = DOWNLOAD_TRANSFER_ERROR;
+            }
+        } catch (RuntimeException e) {
+            OtaLog.e(TAG, "❌ Apply failed: " + e.getMessage(), e);
+            errorCode = ERROR;
+        }
+        OtaLog.i(TAG, "Apply finished with error code " + errorCode + " in "
+                + (System.currentTimeMillis() - startTime) + "ms");
+        
+        synchronized (this) {
+            worker = null;
+            if (errorCode == SUCCESS) {
+                broadcast(UPDATED_NEED_REBOOT, 0, true);
+            } else {
+                broadcast(REPORTING_ERROR_EVENT, 0, true);
+                broadcast(IDLE, 0, true);
+            }
+        }
+        final int result = errorCode;
+        callbackExecutor.execute(() -> {
+            UpdateEngineListener bound = listener;
+            if (bound != null) {
+                bound.onPayloadApplicationComplete(result);
+            }
+        });
+    }
+    
+    private void apply(String url, long offset, long size, String[] headerKeyValuePairs)
+            throws EngineError, IOException, InterruptedException {
+        Map<String, String> properties = new HashMap<>();
+        for (String pair : headerKeyValuePairs != null ? headerKeyValuePairs : new String[0]) {
+            int split = pair.indexOf('=');
+            if (split > 0) {
+                properties.put(pair.substring(0, split), pair.substring(split + 1));
+            }
+        }
+        String fileSize = properties.get("FILE_SIZE");
+        if (fileSize != null && Long.parseLong(fileSize) != size) {
+            throw new EngineError(PAYLOAD_SIZE_MISMATCH_ERROR,
+                    "FILE_SIZE " + fileSize + " does not match payload size " + size);
+        }
+        
+        report(DOWNLOADING, 0);
+        HttpURLConnection connection = null;
+        try {
+            InputStream input;
+            if (url.startsWith("file://")) {
+                FileInputStream file = new FileInputStream(url.substring("file://".length()));
+                file.getChannel().position(offset);
+                input = file;
+            } else {
+                // update_engine has its own HTTP stack, so this does not share HttpTransport's pool
+                connection = (HttpURLConnection) new URL(url).openConnection();
+                connection.setConnectTimeout(CONNECT_TIMEOUT_MS);
+                connection.setReadTimeout(READ_TIMEOUT_MS);
+                connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + size - 1));
+                activeConnection = connection;
+                int responseCode = connection.getResponseCode();
+                if (responseCode != HttpURLConnection.HTTP_PARTIAL
+                        && !(responseCode == HttpURLConnection.HTTP_OK && offset == 0)) {
+                    throw new IOException("Payload request failed: " + responseCode);
+                }
+                input = connection.getInputStream();
+            }
+            activeInput = input;
+            try {
+                MessageDigest payloadDigest = sha256();
+                PayloadManifest manifest = readMetadata(input, size, properties, payloadDigest);
+                streamOperations(input, size, manifest, payloadDigest);
+                
+                String fileHash = properties.get("FILE_HASH");
+                String actualHash = Base64.getEncoder().encodeToString(payloadDigest.digest());
+                if (fileHash != null && !fileHash.equals(actualHash)) {
+                    throw new EngineError(PAYLOAD_HASH_MISMATCH_ERROR,
+                            "Payload hash " + actualHash + " does not match FILE_HASH " + fileHash);
+                }
+                OtaLog.i(TAG, "✓ Payload written: " + manifest);
+                
+                verify(manifest.getNewSize());
+                finalizeUpdate();
+            } finally {
+                input.close();
+            }
+        } finally {
+            activeInput = null;
+            activeConnection = null;
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+    
+    /** Read and check the header and manifest, the part of the payload update_engine reads first. */
+    private PayloadManifest readMetadata(InputStream input, long size, Map<String, String> properties,
+            MessageDigest payloadDigest) throws EngineError, IOException {
+        byte[] header = readFully(input, HEADER_SIZE_V2);
+        long version = ((long) header[4] & 0xff) << 56 | ((long) header[5] & 0xff) << 48
+                | ((long) header[6] & 0xff) << 40 | ((long) header[7] & 0xff) << 32
+                | ((long) header[8] & 0xff) << 24 | ((long) header[9] & 0xff) << 16
+                | ((long) header[10] & 0xff) << 8 | ((long) header[11] & 0xff);
+        int magic = (header[0] & 0xff) << 24 | (header[1] & 0xff) << 16 | (header[2] & 0xff) << 8 | (header[3] & 0xff);
+        if (magic != MAGIC) {
+            throw new EngineError(DOWNLOAD_INVALID_METADATA_MAGIC_STRING, "Bad payload magic");
+        }
+        long manifestSize = 0;
+        for (int i = 12; i < 20; i++) {
+            manifestSize = manifestSize << 8 | (header[i] & 0xff);
+        }
+        long metadataSize = (version == 1 ? HEADER_SIZE_V1 : HEADER_SIZE_V2) + manifestSize;
+        if (manifestSize <= 0 || metadataSize > size || metadataSize > Integer.MAX_VALUE) {
+            throw new EngineError(DOWNLOAD_INVALID_METADATA_SIZE, "Invalid manifest size " + manifestSize);
+        }
+        String expectedMetadataSize = properties.get("METADATA_SIZE");
+        if (expectedMetadataSize != null && Long.parseLong(expectedMetadataSize) != metadataSize) {
+            throw new EngineError(DOWNLOAD_INVALID_METADATA_SIZE,
+                    "Metadata size " + metadataSize + " does not match METADATA_SIZE " + expectedMetadataSize);
+        }
+        
+        final byte[] metadata = Arrays.copyOf(header, (int) metadataSize);
+        byte[] rest = readFully(input, (int) metadataSize - HEADER_SIZE_V2);
+        System.arraycopy(rest, 0, metadata, HEADER_SIZE_V2, rest.length);
+        payloadDigest.update(metadata);
+        String metadataHash = properties.get("METADATA_HASH");
+        if (metadataHash != null
+                && !metadataHash.equals(Base64.getEncoder().encodeToString(sha256().digest(metadata)))) {
+            throw new EngineError(DOWNLOAD_METADATA_SIGNATURE_MISMATCH, "Metadata hash does not match METADATA_HASH");
+        }
+        
+        try {
+            // The manifest reader also reads the metadata signature size from the header
+            return PayloadManifest.read(new ZipLayout.Source() {
+                @Override
+                public long size() {
+                    return size;
+                }
+                
+                @Override
+                public byte[] read(long offset, int length) throws IOException {
+                    if (offset + length > metadata.length) {
+                        throw new EOFException("Read beyond the payload metadata");
+                    }
+                    return Arrays.copyOfRange(metadata, (int) offset, (int) offset + length);
+                }
+            }, 0, size);
+        } catch (IOException e) {
+            throw new EngineError(DOWNLOAD_MANIFEST_PARSE_ERROR, "Manifest parse failed: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Stream the rest of the payload, checking each operation's blob against its hash once the
+     * whole blob went past, as update_engine does before it writes the operation.
+     */
+    private void streamOperations(InputStream input, long size, PayloadManifest manifest,
+            MessageDigest payloadDigest) throws EngineError, IOException, InterruptedException {
+        List<PayloadManifest.Operation> operations = new ArrayList<>();
+        for (PayloadManifest.Partition partition : manifest.partitions) {
+            for (PayloadManifest.Operation operation : partition.operations) {
+                if (operation.dataLength > 0 && operation.dataSha256 != null) {
+                    operations.add(operation);
+                }
+            }
+        }
+        operations.sort(Comparator.comparingLong(operation -> operation.dataOffset));
+        
+        byte[] buffer = new byte[BUFFER_SIZE];
+        long position = manifest.manifestSize + (manifest.fileFormatVersion == 1 ? HEADER_SIZE_V1 : HEADER_SIZE_V2);
+        long startPosition = position;
+        long startTime = System.nanoTime();
+        int next = 0;
+        MessageDigest operationDigest = sha256();
+        while (position < size) {
+            int count = input.read(buffer, 0, (int) Math.min(buffer.length, size - position));
+            if (count < 0) {
+                throw new EOFException("Payload ended after " + position + " of " + size + " bytes");
+            }
+            payloadDigest.update(buffer, 0, count);
+            long end = position + count;
+            while (next < operations.size()) {
+                PayloadManifest.Operation operation = operations.get(next);
+                long blobStart = manifest.dataOffset + operation.dataOffset;
+                long blobEnd = blobStart + operation.dataLength;
+                if (blobStart >= end) {
+                    break;
+                }
+                long from = Math.max(blobStart, position);
+                long to = Math.min(blobEnd, end);
+                if (to > from) {
+                    operationDigest.update(buffer, (int) (from - position), (int) (to - from));
+                }
+                if (blobEnd > end) {
+                    break;
+                }
+                if (!MessageDigest.isEqual(operationDigest.digest(), operation.dataSha256)) {
+                    throw new EngineError(DOWNLOAD_OPERATION_HASH_MISMATCH,
+                            "Hash mismatch in operation " + next + " at payload offset " + blobStart);
+                }
+                next++;
+            }
+            position = end;
+            pace(startTime, position - startPosition, writeBytesPerSecond);
+            report(DOWNLOADING, (float) position / size);
+        }
+    }
+    
+    /** update_engine hashes the new partitions it wrote; time that by their size. */
+    private void verify(long newSize) throws EngineError, InterruptedException {
+        report(VERIFYING, 0);
+        long startTime = System.nanoTime();
+        for (int step = 1; step <= SIMULATED_STEPS; step++) {
+            pace(startTime, newSize * step / SIMULATED_STEPS, verifyBytesPerSecond);
+            report(VERIFYING, (float) step / SIMULATED_STEPS);
+        }
+    }
+    
+    private void finalizeUpdate() throws EngineError, InterruptedException {
+        report(FINALIZING, 0);
+        long startTime = System.nanoTime();
+        for (int step = 1; step <= SIMULATED_STEPS; step++) {
+            long due = finalizeMs * step / SIMULATED_STEPS - (System.nanoTime() - startTime) / 1000000;
+            if (due > 0) {
+                Thread.sleep(due);
+            }
+            report(FINALIZING, (float) step / SIMULATED_STEPS);
+        }
+    }
+    
+    /** Sleep until {@code done} units would have taken at {@code perSecond}. */
+    private static void pace(long startNanos, long done, long perSecond) throws InterruptedException {
+        if (perSecond <= 0) {
+            return;
+        }
+        long due = done * 1000 / perSecond - (System.nanoTime() - startNanos) / 1000000;
+        if (due > 0) {
+            Thread.sleep(due);
+        }
+    }
+    
+    /** Publish progress of the running apply, failing it here if an error was injected for this point. */
+    private void report(int newStatus, float newProgress) throws EngineError, InterruptedException {
+        if (cancelled || Thread.interrupted()) {
+            throw new InterruptedException("Cancelled");
+        }
+        synchronized (this) {
+            if (injectedErrorCode != 0 && injectedStatus == newStatus && newProgress >= injectedProgress) {
+                int errorCode = injectedErrorCode;
+                injectedErrorCode = 0;
+                throw new EngineError(errorCode, "Injected error at status " + newStatus + ", " + newProgress);
+            }
+            broadcast(newStatus, newProgress, false);
+        }
+    }
+    
+    /**
+     * Record the status and notify the listener on a status change, after a percent of progress,
+     * or after {@link #BROADCAST_INTERVAL_MS}. Called with the lock held.
+     */
+    private void broadcast(final int newStatus, final float newProgress, boolean force) {
+        long now = System.nanoTime() / 1000000;
+        boolean due = force || newStatus != status || newProgress >= 1
+                || newProgress - lastBroadcastProgress >= BROADCAST_PROGRESS_STEP
+                || now - lastBroadcastTime >= BROADCAST_INTERVAL_MS;
+        status = newStatus;
+        progress = newProgress;
+        if (!due) {
+            return;
+        }
+        lastBroadcastTime = now;
+        lastBroadcastProgress = newProgress;
+        callbackExecutor.execute(() -> {
+            UpdateEngineListener bound = listener;
+            if (bound != null) {
+                bound.onStatusUpdate(newStatus, newProgress);
+            }
+        });
+    }
+    
+    private static byte[] readFully(InputStream input, int length) throws IOException {
+        byte[] data = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int count = input.read(data, read, length - read);
+            if (count < 0) {
+                throw new EOFException("Payload ended after " + read + " of " + length + " metadata bytes");
+            }
+            read += count;
+        }
+        return data;
+    }
+    
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /** An apply failure with the update_engine error code it is reported as. */
+    private static class EngineError extends Exception {
+        private static final long serialVersionUID = 1L;
+        final int errorCode;
+        
+        EngineError(int errorCode, String message) {
+            super(message);
+            this.errorCode = errorCode;
+        }
+    }
+}
\ No newline at end of file
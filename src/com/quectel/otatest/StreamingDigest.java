@@ -0,0 +1,112 @@
+package com.quectel.otatest;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 over a file that is being written, computed from the bytes as they are written.
+ *
+ * Bytes must be hashed in file order. A chunk offered at the current hash position is consumed
+ * directly; chunks further ahead (later segments of a parallel download, or the committed prefix
+ * of a resumed one) are skipped and picked up later by {@link #catchUp}, which reads them back
+ * from the freshly written file once everything before them is on disk.
+ *
+ * One thread at a time owns the catch-up. It reads and hashes outside the monitor, so the threads
+ * offering chunks are never blocked behind a disk read; while a catch-up runs, their chunks are
+ * skipped and read back as part of it.
+ */
+class StreamingDigest {
+    private static final int CATCH_UP_BUFFER_SIZE = 256 * 1024;
+    
+    private final MessageDigest sha256;
+    private ByteBuffer scratch;
+    private long position;
+    private long caughtUpBytes;
+    private boolean catchingUp;
+    
+    StreamingDigest() {
+        try {
+            sha256 = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+    
+    /**
+     * Hash {@code data} (from its position to its limit) if it starts exactly at the current hash
+     * position. The buffer's position is left unchanged.
+     */
+    synchronized void update(ByteBuffer data, long offset) {
+        if (catchingUp || offset != position) {
+            return;
+        }
+        ByteBuffer chunk = data.duplicate();
+        position += chunk.remaining();
+        sha256.update(chunk);
+    }
+    
+    /**
+     * Hash the bytes in [position, upTo) by reading them back from {@code channel}. Returns at once
+     * if another thread is already catching up; that thread, or a later call, covers the range.
+     */
+    void catchUp(FileChannel channel, long upTo) throws IOException {
+        long from;
+        synchronized (this) {
+            if (catchingUp || position >= upTo) {
+                return;
+            }
+            catchingUp = true;
+            from = position;
+            if (scratch == null) {
+                scratch = ByteBuffer.allocateDirect(CATCH_UP_BUFFER_SIZE);
+            }
+        }
+        try {
+            // Nobody else touches the digest or the position while catchingUp is set
+            while (from < upTo) {
+                scratch.clear();
+                scratch.limit((int) Math.min(scratch.capacity(), upTo - from));
+                int read = channel.read(scratch, from);
+                if (read < 0) {
+                    throw new IOException("Unexpected end of file at " + from);
+                }
+                scratch.flip();
+                sha256.update(scratch);
+                from += read;
+                synchronized (this) {
+                    position = from;
+                    caughtUpBytes += read;
+                }
+            }
+        } finally {
+            synchronized (this) {
+                catchingUp = false;
+            }
+        }
+    }
+    
+    synchronized long position() {
+        return position;
+    }
+    
+    /** Bytes that had to be read back from the file instead of being hashed inline. */
+    synchronized long caughtUpBytes() {
+        return caughtUpBytes;
+    }
+    
+    synchronized byte[] digest() {
+        return sha256.digest();
+    }
+    
+    /** Lower-case hex form of {@code bytes}, as digests are logged and compared. */
+    static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b & 0xff));
+        }
+        return builder.toString();
+    }
+}
\ No newline at end of file
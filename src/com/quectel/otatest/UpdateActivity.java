@@ -9,24 +9,31 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.PowerManager;
+import android.os.SystemProperties;
 import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
 public class UpdateActivity extends Activity {
     private static final String TAG = "UpdateActivity";
     private static final String FALLBACK_UPDATE_URL = "http://10.32.1.11:8080/update.zip"; // Fallback URL if API doesn't provide one
+    private static final String STREAMING_INSTALL_PROPERTY = "persist.sys.ota.streaming_install";
     
     private TextView statusText;
     private Button installButton;
     private ProgressDialog progressDialog;
     private Handler mainHandler;
-    private ShellManager shellManager;
     private UpdateManager updateManager;
     private PowerManager.WakeLock wakeLock;
     private boolean isUpdateAvailable = false;
+    private CompletableFuture<OTAApiClient.UpdateResponse> pendingCheck;
+    private final UpdateStateStore store = UpdateStateStore.getInstance();
+    private final UpdatePipeline pipeline = UpdatePipeline.getInstance();
     
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -39,14 +46,13 @@ public class UpdateActivity extends Activity {
             Log.d(TAG, "Content view set successfully");
             
             mainHandler = new Handler(Looper.getMainLooper());
-            shellManager = new ShellManager();
             
             // Initialize power management and update manager
             PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
             wakeLock = pm.newWakeLock(PowerManager.SCREEN_BRIGHT_WAKE_LOCK, "OTA:UpdateActivity");
             updateManager = new UpdateManager(mainHandler, wakeLock);
             
-            Log.d(TAG, "Handler, ShellManager, and UpdateManager initialized");
+            Log.d(TAG, "Handler and UpdateManager initialized");
             
             initViews();
             Log.d(TAG, "Views initialized");
@@ -111,76 +117,96 @@ public class UpdateActivity extends Activity {
             installButton.setEnabled(false);
             Log.d(TAG, "UI set to checking state");
             
-            new Thread(new Runnable() {
-                @Override
-                public void run() {
-                    Log.d(TAG, "Background thread started for API update check");
-                    Log.i(TAG, "Current Build ID: " + UpdateChecker.getCurrentBuildId());
-                    
-                    final OTAApiClient.UpdateResponse response = UpdateChecker.checkForUpdate();
-                    Log.d(TAG, "API update check completed");
-                    
-                    mainHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            Log.d(TAG, "Updating UI with API check results");
+            Log.i(TAG, "Current Build ID: " + UpdateChecker.getCurrentBuildId());
+            pendingCheck = UpdateChecker.checkForUpdateAsync();
+            pendingCheck.whenComplete((response, error) -> {
+                final OTAApiException failure = OTAApiException.from(error);
+                if (failure != null && failure.getKind() == OTAApiException.Kind.CANCELLED) {
+                    Log.d(TAG, "API update check cancelled");
+                    return;
+                }
+                Log.d(TAG, "API update check completed");
+                
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Log.d(TAG, "Updating UI with API check results");
+                        
+                        if (failure == null) {
+                            Log.i(TAG, "=== UpdateActivity API Results ===");
+                            Log.i(TAG, "Status: " + response.status);
+                            Log.i(TAG, "Build ID: " + response.buildId);
+                            Log.i(TAG, "Package URL: " + response.packageUrl);
+                            Log.i(TAG, "Download URL: " + response.getFullPackageUrl());
+                            Log.i(TAG, "Patch Notes: " + response.patchNotes);
                             
-                            if (response != null) {
-                                Log.i(TAG, "=== UpdateActivity API Results ===");
-                                Log.i(TAG, "Status: " + response.status);
-                                Log.i(TAG, "Build ID: " + response.buildId);
-                                Log.i(TAG, "Package URL: " + response.packageUrl);
-                                Log.i(TAG, "Download URL: " + response.getFullPackageUrl());
-                                Log.i(TAG, "Patch Notes: " + response.patchNotes);
+                            if (response.isUpdateAvailable()) {
+                                Log.i(TAG, "🎉 API confirms update available - enabling installation");
+                                Log.i(TAG, "📦 Download URL: " + response.getFullPackageUrl());
                                 
-                                if (response.isUpdateAvailable()) {
-                                    Log.i(TAG, "🎉 API confirms update available - enabling installation");
-                                    Log.i(TAG, "📦 Download URL: " + response.getFullPackageUrl());
-                                    
-                                    String statusMessage = "Update Available!\n\n";
-                                    statusMessage += "New Build: " + response.buildId + "\n";
-                                    if (response.patchNotes != null && !response.patchNotes.isEmpty()) {
-                                        statusMessage += "\nPatch Notes:\n" + response.patchNotes;
-                                    }
-                                    statusMessage += "\n\nReady to install the latest version.";
-                                    
-                                    statusText.setText(statusMessage);
-                                    installButton.setText("Install Update");
-                                    installButton.setEnabled(true);
-                                    isUpdateAvailable = true;
-                                    
-                                    // Store update info for download process
-                                    getIntent().putExtra("download_url", response.getFullPackageUrl());
-                                    getIntent().putExtra("build_id", response.buildId);
-                                    getIntent().putExtra("patch_notes", response.patchNotes);
-                                    
-                                } else if (response.isUpToDate()) {
-                                    Log.i(TAG, "✅ API confirms system is up to date");
-                                    statusText.setText("No Update Available\n\nYour system is up to date.");
-                                    installButton.setText("Check Again");
-                                    installButton.setEnabled(true);
-                                } else if (response.isError()) {
-                                    Log.w(TAG, "❌ API returned error: " + response.message);
-                                    statusText.setText("Update Check Failed\n\n" + response.message);
-                                    installButton.setText("Retry");
-                                    installButton.setEnabled(true);
-                                } else {
-                                    Log.w(TAG, "⚠️ Unexpected API status: " + response.status);
-                                    statusText.setText("Unexpected Response\n\n" + response.status);
-                                    installButton.setText("Retry");
-                                    installButton.setEnabled(true);
+                                String statusMessage = "Update Available!\n\n";
+                                statusMessage += "New Build: " + response.buildId + "\n";
+                                if (response.patchNotes != null && !response.patchNotes.isEmpty()) {
+                                    statusMessage += "\nPatch Notes:\n" + response.patchNotes;
                                 }
-                                Log.i(TAG, "=================================");
+                                statusMessage += "\n\nReady to install the latest version.";
+                                
+                                statusText.setText(statusMessage);
+                                installButton.setText("Install Update");
+                                installButton.setEnabled(true);
+                                isUpdateAvailable = true;
+                                // The download reads the update details back from UpdateStateStore
+                                
+                            } else if (response.isUpToDate()) {
+                                Log.i(TAG, "✅ API confirms system is up to date");
+                                statusText.setText("No Update Available\n\nYour system is up to date.");
+                                installButton.setText("Check Again");
+                                installButton.setEnabled(true);
+                            } else if (response.isError()) {
+                                Log.w(TAG, "❌ API returned error: " + response.message);
+                                statusText.setText("Update Check Failed\n\n" + response.message);
+                                installButton.setText("Retry");
+                                installButton.setEnabled(true);
                             } else {
-                                Log.e(TAG, "❌ API check failed - null response");
-                                statusText.setText("Update Check Failed\n\nCould not connect to server. Please check your connection and try again.");
+                                Log.w(TAG, "⚠️ Unexpected API status: " + response.status);
+                                statusText.setText("Unexpected Response\n\n" + response.status);
                                 installButton.setText("Retry");
                                 installButton.setEnabled(true);
                             }
+                            Log.i(TAG, "=================================");
+                        } else {
+                            Log.e(TAG, "❌ API check failed: " + failure);
+                            statusText.setText("Update Check Failed\n\n" + failure.getUserMessage());
+                            installButton.setText("Retry");
+                            installButton.setEnabled(true);
                         }
-                    });
-                }
-            }).start();
+                    }
+                });
+            });
+        }
+    }
+    
+    /**
+     * Detail of the update to install. The launching intent carries it when the activity was
+     * opened from the update notification; otherwise it comes from the last check in the store.
+     */
+    private String updateDetail(String key) {
+        if (getIntent().getStringExtra("download_url") != null) {
+            return getIntent().getStringExtra(key);
+        }
+        OTAApiClient.UpdateResponse response = store.getState().checkResponse;
+        if (response == null || !response.isUpdateAvailable()) {
+            return null;
+        }
+        switch (key) {
+            case "download_url":
+                return response.getFullPackageUrl();
+            case "build_id":
+                return response.buildId;
+            case "package_sha256":
+                return response.sha256;
+            default:
+                return null;
         }
     }
     
@@ -190,6 +216,12 @@ public class UpdateActivity extends Activity {
             return;
         }
         
+        if (!pipeline.claim()) {
+            Log.w(TAG, "Update is already being installed in the background");
+            Toast.makeText(this, "Update is already being installed", Toast.LENGTH_LONG).show();
+            return;
+        }
+        
         Log.d(TAG, "Starting update process...");
         installButton.setEnabled(false);
         
@@ -204,27 +236,130 @@ public class UpdateActivity extends Activity {
         
         statusText.setText("Installing update...\nDo not turn off the device during this process.");
         
-        // Start download process
-        downloadUpdate();
+        // Stream straight into update_engine when requested, otherwise download the package first
+        boolean streamingInstall = getIntent().getBooleanExtra("streaming_install",
+                SystemProperties.getBoolean(STREAMING_INSTALL_PROPERTY, false));
+        String packageUrl = updateDetail("download_url");
+        if (packageUrl == null || packageUrl.isEmpty()) {
+            packageUrl = FALLBACK_UPDATE_URL;
+        }
+        // Keeps the journal of an earlier attempt at the same package, so finished steps are skipped
+        pipeline.checked(updateDetail("build_id"), packageUrl, updateDetail("package_sha256"),
+                UpdateChecker.getCurrentBuildId());
+        UpdatePipeline.Record record = pipeline.current();
+        UpdatePipeline.Stage stage = record.stage;
+        boolean packageExists = new File(PackageStager.PACKAGE_PATH).exists();
+        if (stage == UpdatePipeline.Stage.APPLIED_PENDING_REBOOT) {
+            Log.i(TAG, "✓ Update already applied, only the reboot is missing");
+            progressDialog.dismiss();
+            showRebootPrompt();
+            return;
+        }
+        if (stage == UpdatePipeline.Stage.APPLYING && (record.streaming || packageExists)) {
+            // update_engine refuses a second applyPayload while applying or waiting for a reboot
+            Log.i(TAG, "✓ Update was already being applied, picking up update_engine's state");
+            resumeSystemUpdate(record.streaming);
+            return;
+        }
+        if (!streamingInstall && packageExists) {
+            if (stage == UpdatePipeline.Stage.VERIFIED) {
+                Log.i(TAG, "✓ Package already downloaded and verified, continuing with installation");
+                startInstallation();
+                return;
+            }
+            String expectedSha256 = updateDetail("package_sha256");
+            if (stage == UpdatePipeline.Stage.DOWNLOADED && (expectedSha256 == null || expectedSha256.isEmpty())) {
+                // No hash to check; the payload verification before applying covers the package
+                Log.i(TAG, "✓ Package already downloaded, continuing with installation");
+                startInstallation();
+                return;
+            }
+            if (stage == UpdatePipeline.Stage.STAGED) {
+                Log.i(TAG, "✓ Package already staged, continuing with system update");
+                startSystemUpdate();
+                return;
+            }
+        }
+        
+        if (streamingInstall) {
+            streamUpdate();
+        } else {
+            downloadUpdate();
+        }
+    }
+    
+    /**
+     * Install without a local copy: update_engine fetches payload.bin from the server, so the
+     * download and install steps overlap and no space is needed for the zip.
+     */
+    private void streamUpdate() {
+        OtaExecutors.NETWORK.execute("stream-update", new Runnable() {
+            @Override
+            public void run() {
+                Log.i(TAG, "=== Starting Streaming Update ===");
+                
+                String downloadUrl = updateDetail("download_url");
+                if (downloadUrl == null || downloadUrl.isEmpty()) {
+                    Log.w(TAG, "No download URL known, using fallback URL");
+                    downloadUrl = FALLBACK_UPDATE_URL;
+                }
+                Log.i(TAG, "📦 Streaming from: " + downloadUrl);
+                Log.i(TAG, "🔄 Build ID: " + updateDetail("build_id"));
+                
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        progressDialog.setMessage("Step 1: Reading update package...");
+                        progressDialog.setProgress(0);
+                    }
+                });
+                
+                updateManager.performStreamingUpdate(downloadUrl, new UpdateManager.UpdateCallback() {
+                    @Override
+                    public void onProgress(ProgressPublisher.Progress progress) {
+                        Log.d(TAG, "Streaming update progress: " + progress);
+                        progressDialog.setProgress(progress.percent);
+                        progressDialog.setMessage(formatProgress("Step 2: Downloading and installing update...", progress));
+                    }
+                    
+                    @Override
+                    public void onSuccess() {
+                        Log.i(TAG, "Streaming update completed successfully");
+                        progressDialog.dismiss();
+                        showRebootPrompt();
+                    }
+                    
+                    @Override
+                    public void onError(String error) {
+                        Log.e(TAG, "Streaming update failed: " + error);
+                        progressDialog.dismiss();
+                        showError("System update failed: " + error);
+                    }
+                });
+            }
+        });
     }
     
     private void downloadUpdate() {
-        new Thread(new Runnable() {
+        OtaExecutors.NETWORK.execute("download-update", new Runnable() {
             @Override
             public void run() {
                 try {
                     Log.i(TAG, "=== Starting Update Download Process ===");
                     
-                    // Get download URL from intent or use fallback
-                    String downloadUrl = getIntent().getStringExtra("download_url");
+                    // Get download URL from intent or the last check, or use fallback
+                    String downloadUrl = updateDetail("download_url");
                     if (downloadUrl == null || downloadUrl.isEmpty()) {
-                        Log.w(TAG, "No download URL in intent, using fallback URL");
+                        Log.w(TAG, "No download URL known, using fallback URL");
                         downloadUrl = FALLBACK_UPDATE_URL; // Fallback to old URL
                     }
                     
                     Log.i(TAG, "📦 Download URL: " + downloadUrl);
                     Log.i(TAG, "📂 Target file: /data/ota_package/update.zip");
-                    Log.i(TAG, "🔄 Build ID: " + getIntent().getStringExtra("build_id"));
+                    Log.i(TAG, "🔄 Build ID: " + updateDetail("build_id"));
+                    final String expectedSha256 = updateDetail("package_sha256");
+                    Log.i(TAG, "🔒 Expected SHA-256: " + expectedSha256);
+                    pipeline.advance(UpdatePipeline.Stage.DOWNLOADING);
                     
                     mainHandler.post(new Runnable() {
                         @Override
@@ -237,29 +372,34 @@ public class UpdateActivity extends Activity {
                     // Create DownloadManager instance and start download
                     Log.d(TAG, "Creating DownloadManager instance...");
                     DownloadManager downloadManager = new DownloadManager();
+                    downloadManager.setProgressExecutor(mainHandler::post);
                     
                     Log.i(TAG, "Starting download from: " + downloadUrl);
                     final String finalDownloadUrl = downloadUrl;
                     boolean downloadSuccess = downloadManager.downloadFile(downloadUrl, "/data/ota_package/update.zip", 
-                        new DownloadManager.DownloadCallback() {
+                        expectedSha256, new DownloadManager.DownloadCallback() {
                             @Override
-                            public void onProgress(final int progress) {
-                                Log.v(TAG, "Download progress: " + progress + "% from " + finalDownloadUrl);
-                                mainHandler.post(new Runnable() {
-                                    @Override
-                                    public void run() {
-                                        progressDialog.setProgress(progress);
-                                        progressDialog.setMessage("Step 1: Downloading update... " + progress + "%");
-                                    }
-                                });
+                            public void onProgress(ProgressPublisher.Progress progress) {
+                                // Delivered on the main thread, already rate limited
+                                Log.v(TAG, "Download progress: " + progress + " from " + finalDownloadUrl);
+                                store.downloadProgress(progress);
+                                progressDialog.setProgress(progress.percent);
+                                progressDialog.setMessage(formatProgress("Step 1: Downloading update...", progress));
                             }
                             
                             @Override
-                            public void onSuccess() {
+                            public void onSuccess(DownloadManager.DownloadResult result) {
                                 Log.i(TAG, "✅ Download completed successfully!");
                                 Log.i(TAG, "📦 Downloaded from: " + finalDownloadUrl);
-                                Log.i(TAG, "📂 Saved to: /data/ota_package/update.zip");
-                                Log.i(TAG, "🔄 Build ID: " + getIntent().getStringExtra("build_id"));
+                                Log.i(TAG, "📂 Saved to: " + result.path + " (" + result.size + " bytes)");
+                                Log.i(TAG, "🔒 SHA-256: " + result.getSha256Hex());
+                                Log.i(TAG, "🔄 Build ID: " + updateDetail("build_id"));
+                                store.downloadCompleted();
+                                pipeline.advance(UpdatePipeline.Stage.DOWNLOADED);
+                                if (expectedSha256 != null && !expectedSha256.isEmpty()) {
+                                    // The SHA-256 was checked while the package was written
+                                    pipeline.advance(UpdatePipeline.Stage.VERIFIED);
+                                }
                                 
                                 mainHandler.post(new Runnable() {
                                     @Override
@@ -283,6 +423,7 @@ public class UpdateActivity extends Activity {
                             public void onError(final String error) {
                                 Log.e(TAG, "❌ Download failed from: " + finalDownloadUrl);
                                 Log.e(TAG, "Error details: " + error);
+                                store.failed("Download failed: " + error);
                                 mainHandler.post(new Runnable() {
                                     @Override
                                     public void run() {
@@ -305,17 +446,16 @@ public class UpdateActivity extends Activity {
                     });
                 }
             }
-        }).start();
+        });
     }
     
     private void startInstallation() {
-        new Thread(new Runnable() {
+        OtaExecutors.DISK.execute("stage-package", new Runnable() {
             @Override
             public void run() {
                 try {
                     Log.d(TAG, "Starting installation process");
                     
-                    // Step 2: Move file to /storage/emulated/0/
                     mainHandler.post(new Runnable() {
                         @Override
                         public void run() {
@@ -324,36 +464,29 @@ public class UpdateActivity extends Activity {
                         }
                     });
                     
-                    String moveCommand1 = "mv /data/ota_package/update.zip /storage/emulated/0/update.zip";
-                    String result1 = shellManager.executeCommand(moveCommand1);
-                    Log.d(TAG, "Move to storage result: " + result1);
-                    
-                    mainHandler.post(new Runnable() {
-                        @Override
-                        public void run() {
-                            progressDialog.setProgress(25);
-                            progressDialog.setMessage("Step 2: Setting permissions...");
-                        }
+                    File packageFile = new File(PackageStager.PACKAGE_PATH);
+                    ProgressPublisher copyProgress = new ProgressPublisher(mainHandler::post, progress -> {
+                        progressDialog.setProgress(progress.percent);
+                        progressDialog.setMessage(formatProgress("Step 2: Copying update package...", progress));
                     });
+                    PackageStager stager = new PackageStager(copyProgress);
                     
-                    // Step 3: Change permissions
-                    String chmodCommand = "chmod 644 /storage/emulated/0/update.zip";
-                    String result2 = shellManager.executeCommand(chmodCommand);
-                    Log.d(TAG, "Chmod result: " + result2);
-                    
-                    mainHandler.post(new Runnable() {
+                    boolean skipStaging = getIntent().getBooleanExtra("skip_staging",
+                            SystemProperties.getBoolean(PackageStager.SKIP_STAGING_PROPERTY, false));
+                    // Steps 2-4: move out to /storage/emulated/0/, fix permissions, move back
+                    stager.stage(packageFile, skipStaging, new PackageStager.StepListener() {
                         @Override
-                        public void run() {
-                            progressDialog.setProgress(50);
-                            progressDialog.setMessage("Step 2: Moving back to installation directory...");
+                        public void onStep(final int percent, final String message) {
+                            mainHandler.post(new Runnable() {
+                                @Override
+                                public void run() {
+                                    progressDialog.setProgress(percent);
+                                    progressDialog.setMessage("Step 2: " + message);
+                                }
+                            });
                         }
                     });
                     
-                    // Step 4: Move back to installation directory
-                    String moveCommand2 = "mv /storage/emulated/0/update.zip /data/ota_package/update.zip";
-                    String result3 = shellManager.executeCommand(moveCommand2);
-                    Log.d(TAG, "Move back result: " + result3);
-                    
                     mainHandler.post(new Runnable() {
                         @Override
                         public void run() {
@@ -363,10 +496,12 @@ public class UpdateActivity extends Activity {
                     });
                     
                     // Step 5: Start actual update installation
+                    pipeline.advance(UpdatePipeline.Stage.STAGED);
                     startSystemUpdate();
                     
                 } catch (Exception e) {
                     Log.e(TAG, "Installation preparation failed: " + e.getMessage());
+                    store.failed("Installation preparation failed: " + e.getMessage());
                     mainHandler.post(new Runnable() {
                         @Override
                         public void run() {
@@ -376,7 +511,7 @@ public class UpdateActivity extends Activity {
                     });
                 }
             }
-        }).start();
+        });
     }
     
     private void startSystemUpdate() {
@@ -402,27 +537,11 @@ public class UpdateActivity extends Activity {
                     Toast.makeText(UpdateActivity.this, "System update installation starting...", Toast.LENGTH_LONG).show();
                     Log.i(TAG, "Starting actual system update with UpdateManager");
                     
-                    // Use UpdateManager to perform the actual system update
-                    updateManager.performUpdate(new UpdateManager.UpdateCallback() {
-                        @Override
-                        public void onProgress(int progress) {
-                            Log.d(TAG, "System update progress: " + progress + "%");
-                            progressDialog.setProgress(progress);
-                            progressDialog.setMessage("Step 3: Installing system update... " + progress + "%");
-                        }
-                        
-                        @Override
-                        public void onSuccess() {
-                            Log.i(TAG, "System update completed successfully");
-                            progressDialog.dismiss();
-                            showRebootPrompt();
-                        }
-                        
+                    // Parsing and payload verification block, so keep them off the main thread
+                    OtaExecutors.DISK.execute("parse-verify-apply", new Runnable() {
                         @Override
-                        public void onError(String error) {
-                            Log.e(TAG, "System update failed: " + error);
-                            progressDialog.dismiss();
-                            showError("System update failed: " + error);
+                        public void run() {
+                            updateManager.performUpdate(systemUpdateCallback());
                         }
                     });
                 }
@@ -440,11 +559,58 @@ public class UpdateActivity extends Activity {
         }
     }
     
+    /**
+     * Continue an installation the journal recorded as applying. update_engine reports whether it
+     * is still applying or already done; only if it went idle is the payload applied again.
+     */
+    private void resumeSystemUpdate(final boolean streaming) {
+        progressDialog.setMessage("Step 3: Installing system update...");
+        progressDialog.setProgress(0);
+        statusText.setText("Installing system update...\n\nThe device will reboot automatically when complete. Do not turn off the device during this process.");
+        
+        updateManager.resumeUpdate(systemUpdateCallback(), new Runnable() {
+            @Override
+            public void run() {
+                if (streaming) {
+                    streamUpdate();
+                } else {
+                    startSystemUpdate();
+                }
+            }
+        });
+    }
+    
+    private UpdateManager.UpdateCallback systemUpdateCallback() {
+        return new UpdateManager.UpdateCallback() {
+            @Override
+            public void onProgress(ProgressPublisher.Progress progress) {
+                Log.d(TAG, "System update progress: " + progress);
+                progressDialog.setProgress(progress.percent);
+                progressDialog.setMessage(formatProgress("Step 3: Installing system update...", progress));
+            }
+            
+            @Override
+            public void onSuccess() {
+                Log.i(TAG, "System update completed successfully");
+                progressDialog.dismiss();
+                showRebootPrompt();
+            }
+            
+            @Override
+            public void onError(String error) {
+                Log.e(TAG, "System update failed: " + error);
+                progressDialog.dismiss();
+                showError("System update failed: " + error);
+            }
+        };
+    }
+    
     /**
      * Show reboot prompt after successful update installation
      */
     private void showRebootPrompt() {
         Log.i(TAG, "=== Update Installation Completed Successfully ===");
+        pipeline.release();
         
         statusText.setText("Update Installation Complete!\n\nThe system update has been installed successfully. The device needs to reboot to complete the installation process.");
         
@@ -552,7 +718,23 @@ public class UpdateActivity extends Activity {
         Toast.makeText(this, "Please reboot your device to complete the update installation.", Toast.LENGTH_LONG).show();
     }
     
+    private static String formatProgress(String step, ProgressPublisher.Progress progress) {
+        StringBuilder message = new StringBuilder(step).append(' ').append(progress.percent).append('%');
+        if (progress.phase != null) {
+            message.append(" (").append(progress.phase).append(')');
+        }
+        if (progress.averageBytesPerSecond > 0) {
+            message.append(String.format("\n%.1f MB/s", progress.averageBytesPerSecond / 1024.0 / 1024.0));
+        }
+        if (progress.etaMillis >= 0) {
+            long seconds = progress.etaMillis / 1000;
+            message.append(String.format(" - %d:%02d remaining", seconds / 60, seconds % 60));
+        }
+        return message.toString();
+    }
+    
     private void showError(String error) {
+        pipeline.release();
         statusText.setText("Update Failed\n\n" + error);
         installButton.setText("Try Again");
         installButton.setEnabled(true);
@@ -562,6 +744,9 @@ public class UpdateActivity extends Activity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (pendingCheck != null) {
+            pendingCheck.cancel(false);
+        }
         if (progressDialog != null && progressDialog.isShowing()) {
             progressDialog.dismiss();
         }
@@ -1,73 +1,56 @@
 package com.quectel.otatest;
 
 import android.os.Build;
+import android.os.SystemProperties;
 import android.util.Log;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Update checks against the OTA server, shared by the boot service and the activities.
+ *
+ * Concurrent checks are coalesced: the first caller sends the request and every caller that
+ * arrives while it is in flight gets the same response. A successful, non-error response is then
+ * reused for {@code persist.sys.ota.check_freshness_ms} (30 s by default, 0 disables) as long as
+ * the build ID has not changed. Check outcomes are published to {@link UpdateStateStore}.
+ */
 public class UpdateChecker {
     private static final String TAG = "UpdateChecker";
-    private static String cachedBuildId = null;
-    private static OTAApiClient.UpdateResponse lastUpdateResponse = null;
+    private static final String FRESHNESS_PROPERTY = "persist.sys.ota.check_freshness_ms";
+    private static final long DEFAULT_FRESHNESS_MS = 30 * 1000;
+    private static final long DEFAULT_DEADLINE_MS = 30 * 1000;
+    
+    private static final Object lock = new Object();
+    private static final AtomicBoolean buildInfoLogged = new AtomicBoolean();
+    private static final UpdateStateStore store = UpdateStateStore.getInstance();
+    /** The check currently talking to the server, or null. Guarded by {@link #lock}. */
+    private static Flight inFlight = null;
+    
+    private static final AtomicLong networkChecks = new AtomicLong();
+    private static final AtomicLong coalescedChecks = new AtomicLong();
+    private static final AtomicLong freshChecks = new AtomicLong();
     
     /**
-     * Get the current build ID for this device using getprop ro.build.id
+     * Get the current build ID for this device from ro.build.id, read in process
      * @return The current build ID from system property
      */
     public static String getCurrentBuildId() {
-        if (cachedBuildId == null) {
-            try {
-                Log.d(TAG, "=== Retrieving Build ID from System Properties ===");
-                
-                // First try to get ro.build.id using getprop command
-                Process process = Runtime.getRuntime().exec("getprop ro.build.id");
-                java.io.BufferedReader reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(process.getInputStream()));
-                
-                String buildId = reader.readLine();
-                reader.close();
-                process.waitFor();
-                
-                if (buildId != null && !buildId.trim().isEmpty()) {
-                    cachedBuildId = buildId.trim();
-                    Log.i(TAG, "✅ Build ID from getprop ro.build.id: " + cachedBuildId);
-                } else {
-                    Log.w(TAG, "⚠️ getprop ro.build.id returned empty, using fallback");
-                    // Fallback to Build.ID if getprop fails
-                    cachedBuildId = Build.ID;
-                    Log.i(TAG, "📋 Fallback Build ID from Build.ID: " + cachedBuildId);
-                }
-                
-            } catch (Exception e) {
-                Log.e(TAG, "❌ Failed to get build ID via getprop: " + e.getMessage());
-                Log.e(TAG, "Using Build.ID as fallback");
-                
-                // Fallback to Build.ID if getprop command fails
-                cachedBuildId = Build.ID;
-                Log.i(TAG, "📋 Fallback Build ID from Build.ID: " + cachedBuildId);
-            }
-            
+        BuildProperties.Snapshot properties = BuildProperties.get();
+        if (buildInfoLogged.compareAndSet(false, true)) {
             Log.i(TAG, "=== Build ID Information ===");
-            Log.i(TAG, "Final Build ID: " + cachedBuildId);
+            Log.i(TAG, "Final Build ID: " + properties.buildId);
             Log.d(TAG, "Android Build.DISPLAY: " + Build.DISPLAY);
             Log.d(TAG, "Android Build.ID: " + Build.ID);
             Log.d(TAG, "Android Build.VERSION.INCREMENTAL: " + Build.VERSION.INCREMENTAL);
-            Log.d(TAG, "Android Build.FINGERPRINT: " + Build.FINGERPRINT);
-            
-            // Also try to log the getprop command result for debugging
-            try {
-                Process debugProcess = Runtime.getRuntime().exec("getprop ro.build.id");
-                java.io.BufferedReader debugReader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(debugProcess.getInputStream()));
-                String debugResult = debugReader.readLine();
-                debugReader.close();
-                debugProcess.waitFor();
-                Log.d(TAG, "getprop ro.build.id result: '" + debugResult + "'");
-            } catch (Exception debugE) {
-                Log.d(TAG, "Could not log getprop result: " + debugE.getMessage());
-            }
-            
+            Log.d(TAG, "Fingerprint: " + properties.fingerprint);
+            Log.d(TAG, "Device: " + properties.device + ", slot suffix: " + properties.slotSuffix);
             Log.i(TAG, "===========================");
         }
-        return cachedBuildId;
+        return properties.buildId;
     }
     
     /**
@@ -90,21 +73,132 @@ public class UpdateChecker {
     }
     
     /**
-     * Check for updates using the new REST API
+     * Check for updates using the new REST API, blocking until the answer is in.
+     * Joins a check already in flight, and returns the last response while it is still fresh.
      * @return UpdateResponse object with full update information, or null if request failed
      */
     public static OTAApiClient.UpdateResponse checkForUpdate() {
+        try {
+            return checkForUpdateAsync().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            return OTAApiClient.toErrorResponse(OTAApiException.from(e));
+        }
+    }
+    
+    /** {@link #checkForUpdateAsync(long)} with the default deadline. */
+    public static CompletableFuture<OTAApiClient.UpdateResponse> checkForUpdateAsync() {
+        return checkForUpdateAsync(DEFAULT_DEADLINE_MS);
+    }
+    
+    /**
+     * Check for updates without blocking the caller.
+     * Joins a check already in flight, and returns the last response while it is still fresh.
+     * Every caller gets its own future: cancelling it, or missing its deadline, does not affect
+     * the other callers. Once the last caller still waiting cancels, the request itself is
+     * cancelled. Failures are reported as {@link OTAApiException}.
+     */
+    public static CompletableFuture<OTAApiClient.UpdateResponse> checkForUpdateAsync(long deadlineMs) {
         Log.i(TAG, "=== Starting Full Update Check ===");
         
-        String currentBuildId = getCurrentBuildId();
+        final String currentBuildId = getCurrentBuildId();
         Log.i(TAG, "Current Build ID: " + currentBuildId);
-        Log.d(TAG, "Calling OTAApiClient.checkForUpdate()...");
         
-        long startTime = System.currentTimeMillis();
-        OTAApiClient.UpdateResponse response = OTAApiClient.checkForUpdate(currentBuildId);
-        long duration = System.currentTimeMillis() - startTime;
+        long freshnessMs = SystemProperties.getLong(FRESHNESS_PROPERTY, DEFAULT_FRESHNESS_MS);
+        final Flight flight;
+        boolean leader = false;
+        synchronized (lock) {
+            UpdateStateStore.State last = store.getState();
+            long age = System.currentTimeMillis() - last.checkedAt;
+            if (last.checkResponse != null && !last.checkResponse.isError()
+                    && currentBuildId.equals(last.checkBuildId) && age >= 0 && age < freshnessMs) {
+                freshChecks.incrementAndGet();
+                Log.i(TAG, "✓ Reusing update response from " + age + "ms ago (freshness window "
+                        + freshnessMs + "ms), status: " + last.checkResponse.status);
+                return CompletableFuture.completedFuture(last.checkResponse);
+            }
+            if (inFlight != null) {
+                flight = inFlight;
+            } else {
+                flight = new Flight();
+                inFlight = flight;
+                leader = true;
+                store.checkStarted();
+            }
+            flight.waiters++;
+        }
         
-        if (response != null) {
+        if (leader) {
+            networkChecks.incrementAndGet();
+            Log.d(TAG, "Calling OTAApiClient.checkForUpdateAsync()...");
+            final long startTime = System.currentTimeMillis();
+            CompletableFuture<OTAApiClient.UpdateResponse> request =
+                    OTAApiClient.checkForUpdateAsync(currentBuildId, deadlineMs);
+            synchronized (lock) {
+                // Nobody can have left yet: this caller has not got its future
+                flight.request = request;
+            }
+            request.whenComplete((response, error) -> {
+                OTAApiException failure = OTAApiException.from(error);
+                try {
+                    synchronized (lock) {
+                        inFlight = null;
+                        store.checkCompleted(currentBuildId, response, failure);
+                    }
+                } finally {
+                    // Release every coalesced caller before the side effects below, which may throw
+                    if (failure != null) {
+                        flight.result.completeExceptionally(failure);
+                    } else {
+                        flight.result.complete(response);
+                    }
+                }
+                try {
+                    logResult(currentBuildId, response, failure, System.currentTimeMillis() - startTime);
+                    if (failure == null && response.isUpdateAvailable()) {
+                        UpdatePipeline.getInstance().checked(response, currentBuildId);
+                    }
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Failed to record the update check result: " + e.getMessage(), e);
+                }
+            });
+        } else {
+            coalescedChecks.incrementAndGet();
+            Log.i(TAG, "Update check already in flight, sharing its response");
+        }
+        CompletableFuture<OTAApiClient.UpdateResponse> result =
+                OTAApiClient.withDeadline(flight.result.thenApply(response -> response), deadlineMs);
+        result.whenComplete((response, error) -> leave(flight, error instanceof CancellationException));
+        return result;
+    }
+    
+    /** A caller stopped waiting for {@code flight}; cancel its request if the last one cancelled. */
+    private static void leave(Flight flight, boolean cancelled) {
+        CompletableFuture<OTAApiClient.UpdateResponse> request = null;
+        synchronized (lock) {
+            flight.waiters--;
+            if (cancelled && flight.waiters == 0 && !flight.result.isDone()) {
+                request = flight.request;
+            }
+        }
+        if (request != null) {
+            Log.i(TAG, "Every caller cancelled, cancelling the update check");
+            request.cancel(true);
+        }
+    }
+    
+    /** One request to the server and the callers waiting for it. Guarded by {@link #lock}. */
+    private static class Flight {
+        final CompletableFuture<OTAApiClient.UpdateResponse> result = new CompletableFuture<>();
+        CompletableFuture<OTAApiClient.UpdateResponse> request;
+        int waiters;
+    }
+    
+    private static void logResult(String currentBuildId, OTAApiClient.UpdateResponse response,
+            OTAApiException failure, long duration) {
+        if (failure == null) {
             Log.i(TAG, "✓ Update check completed successfully in " + duration + "ms");
             Log.i(TAG, "=== Update Check Results ===");
             Log.i(TAG, "Status: " + response.status);
@@ -126,15 +220,10 @@ public class UpdateChecker {
                 Log.w(TAG, "❌ Error: " + response.message);
             }
             Log.i(TAG, "===========================");
-            
-            lastUpdateResponse = response;
         } else {
             Log.e(TAG, "❌ Update check failed after " + duration + "ms");
-            Log.e(TAG, "API request returned null response");
-            lastUpdateResponse = null;
+            Log.e(TAG, "Failure: " + failure);
         }
-        
-        return response;
     }
     
     /**
@@ -142,16 +231,24 @@ public class UpdateChecker {
      * @return The last UpdateResponse, or null if no check has been performed
      */
     public static OTAApiClient.UpdateResponse getLastUpdateResponse() {
-        Log.d(TAG, "Returning cached update response: " + (lastUpdateResponse != null ? lastUpdateResponse.status : "null"));
-        return lastUpdateResponse;
+        OTAApiClient.UpdateResponse response = store.getState().checkResponse;
+        Log.d(TAG, "Returning cached update response: " + (response != null ? response.status : "null"));
+        return response;
+    }
+    
+    /** Counts of checks that went to the server, joined one in flight, or reused a fresh response. */
+    public static String getCheckStats() {
+        return "network=" + networkChecks.get() + " coalesced=" + coalescedChecks.get()
+                + " fresh=" + freshChecks.get();
     }
     
     /**
      * Clear the cached update response
      */
     public static void clearCache() {
-        Log.d(TAG, "Clearing cached update response and build ID");
-        lastUpdateResponse = null;
-        cachedBuildId = null;
+        Log.d(TAG, "Clearing cached update response");
+        synchronized (lock) {
+            store.clearCheck();
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.quectel.otatest;
+
+/**
+ * The events update_engine reports while it applies a payload, as plain callbacks.
+ *
+ * android.os.UpdateEngineCallback is an abstract framework class; code that only consumes its
+ * events implements this interface instead, so it can be driven by recorded or synthetic events
+ * off-device. FrameworkUpdateEngine forwards the framework callbacks to it.
+ */
+public interface UpdateEngineListener {
+    /**
+     * @param status one of UpdateEngine.UpdateStatusConstants
+     * @param percent progress of the current status, from 0 to 1
+     */
+    void onStatusUpdate(int status, float percent);
+    
+    /** @param errorCode one of UpdateEngine.ErrorCodeConstants */
+    void onPayloadApplicationComplete(int errorCode);
+}
\ No newline at end of file
@@ -2,74 +2,254 @@ package com.quectel.otatest;
 
 import android.os.Handler;
 import android.os.PowerManager;
+import android.os.SystemProperties;
 import android.os.UpdateEngine;
-import android.os.UpdateEngineCallback;
 import android.util.Log;
 
 import java.io.File;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UpdateManager {
     private static final String TAG = "UpdateManager";
     private static final String DEST_PATH = "/data/ota_package/update.zip";
+    private static final String DATA_PATH = "/data";
     
     private Handler mainHandler;
     private PowerManager.WakeLock wakeLock;
-    private UpdateEngine updateEngine;
+    private OtaUpdateEngine updateEngine;
+    private final ParsedUpdateCache parseCache = new ParsedUpdateCache();
+    private final UpdateStateStore store = UpdateStateStore.getInstance();
+    private final UpdatePipeline pipeline = UpdatePipeline.getInstance();
     
     public UpdateManager(Handler mainHandler, PowerManager.WakeLock wakeLock) {
+        this(mainHandler, wakeLock, OtaUpdateEngine.create());
+    }
+    
+    /** Install through {@code updateEngine}, e.g. a {@link SimulatedUpdateEngine} off-device. */
+    public UpdateManager(Handler mainHandler, PowerManager.WakeLock wakeLock, OtaUpdateEngine updateEngine) {
         this.mainHandler = mainHandler;
         this.wakeLock = wakeLock;
-        this.updateEngine = new UpdateEngine();
+        this.updateEngine = updateEngine;
     }
     
+    /**
+     * Install the package downloaded to {@link #DEST_PATH}. Parses and verifies the whole payload,
+     * so it must not be called on the main thread.
+     */
     public void performUpdate(UpdateCallback callback) {
         try {
             File updateFile = new File(DEST_PATH);
             if (!updateFile.exists()) {
-                callback.onError("Update file not found");
+                store.failed("Update file not found");
+                mainHandler.post(() -> callback.onError("Update file not found"));
                 return;
             }
             
-            Log.d(TAG, "Parsing update file");
-            UpdateParser.ParsedUpdate result = UpdateParser.parse(updateFile);
+            // Re-entering the flow for an unchanged package reuses the earlier parse and verification
+            ParsedUpdateCache.Key cacheKey = ParsedUpdateCache.Key.of(updateFile);
+            ParsedUpdateCache.Entry cached = parseCache.get(cacheKey);
+            UpdateParser.ParsedUpdate result;
+            if (cached != null) {
+                result = cached.update;
+            } else {
+                Log.d(TAG, "Parsing update file");
+                result = UpdateParser.parse(updateFile);
+            }
             
             if (result == null || !result.isValid()) {
                 throw new RuntimeException("Update verification failed");
             }
             
             Log.i(TAG, "Update parsed successfully: " + result.toString());
-            applyUpdate(result, callback);
+            preflight(result);
+            
+            // Catch a damaged package before update_engine starts writing the other slot
+            if (cached != null && cached.verified) {
+                Log.i(TAG, "✓ Payload already verified, skipping hash check");
+            } else {
+                if (cached == null) {
+                    parseCache.put(cacheKey, result, false);
+                }
+                store.verifying();
+                PayloadVerifier.Result verification = new PayloadVerifier().verify(updateFile, result);
+                if (!verification.valid) {
+                    parseCache.invalidate(cacheKey.path);
+                    throw new RuntimeException("Payload verification failed: " + verification);
+                }
+                parseCache.put(cacheKey, result, true);
+            }
+            applyUpdate(result, false, callback);
             
         } catch (Exception e) {
             Log.e(TAG, "Update failed", e);
+            store.failed(e.getMessage());
+            mainHandler.post(() -> callback.onError(e.getMessage()));
+        }
+    }
+    
+    /**
+     * Install straight from a remote package: the payload layout is read with a few HTTP Range
+     * requests and update_engine downloads payload.bin itself, so the zip is never stored on the
+     * device. Performs network I/O and must not be called on the main thread.
+     */
+    public void performStreamingUpdate(String packageUrl, UpdateCallback callback) {
+        try {
+            Log.d(TAG, "Parsing remote update package: " + packageUrl);
+            UpdateParser.ParsedUpdate result = UpdateParser.parseRemote(packageUrl);
+            
+            if (result == null || !result.isValid()) {
+                throw new RuntimeException("Update verification failed");
+            }
+            
+            Log.i(TAG, "Remote update parsed successfully: " + result.toString());
+            preflight(result);
+            applyUpdate(result, true, callback);
+            
+        } catch (Exception e) {
+            Log.e(TAG, "Streaming update failed", e);
+            store.failed(e.getMessage());
             mainHandler.post(() -> callback.onError(e.getMessage()));
         }
     }
     
-    private void applyUpdate(UpdateParser.ParsedUpdate result, UpdateCallback callback) {
+    /**
+     * Reject packages that update_engine would only refuse minutes into an apply: packages for
+     * another device or build, downgrades, and Virtual A/B snapshots that cannot fit in /data.
+     */
+    private void preflight(UpdateParser.ParsedUpdate result) {
+        Log.i(TAG, "=== Update Pre-flight ===");
+        Map<String, String> metadata = result.mMetadata;
+        PayloadManifest manifest = result.mManifest;
+        
+        String preDevice = metadata.get("pre-device");
+        String device = SystemProperties.get("ro.product.device", "");
+        Log.d(TAG, "Package device: " + preDevice + ", this device: " + device);
+        if (preDevice != null && !Arrays.asList(preDevice.split("\\|")).contains(device)) {
+            throw new RuntimeException("Package is for " + preDevice + ", not " + device);
+        }
+        
+        if (manifest == null) {
+            Log.w(TAG, "No payload manifest, skipping payload checks");
+            return;
+        }
+        Log.i(TAG, "📦 Payload: " + manifest);
+        for (PayloadManifest.Partition partition : manifest.partitions) {
+            Log.d(TAG, "- " + partition);
+        }
+        
+        String preBuild = metadata.get("pre-build");
+        String fingerprint = SystemProperties.get("ro.build.fingerprint", "");
+        if (!manifest.isFull() && preBuild != null
+                && !Arrays.asList(preBuild.split("\\|")).contains(fingerprint)) {
+            throw new RuntimeException("Incremental package requires build " + preBuild);
+        }
+        
+        long buildTimestamp = SystemProperties.getLong("ro.build.date.utc", 0);
+        if (manifest.maxTimestamp > 0 && manifest.maxTimestamp < buildTimestamp
+                && !"yes".equals(metadata.get("ota-downgrade"))) {
+            throw new RuntimeException("Package is older than the installed build (" + manifest.maxTimestamp
+                    + " < " + buildTimestamp + ")");
+        }
+        
+        long cowSize = manifest.getEstimateCowSize();
+        long freeSpace = new File(DATA_PATH).getUsableSpace();
+        Log.d(TAG, "Estimated COW size: " + cowSize + ", free in " + DATA_PATH + ": " + freeSpace);
+        if (cowSize > freeSpace) {
+            throw new RuntimeException("Not enough space for update snapshots: need " + cowSize
+                    + " bytes, " + freeSpace + " available");
+        }
+        Log.i(TAG, "✓ Pre-flight checks passed");
+    }
+    
+    /**
+     * Pick up an installation whose process died while update_engine was applying it. Binding
+     * reports update_engine's current status: if it is still applying, wait for it; if it finished,
+     * report that; if it is idle (e.g. the device rebooted mid-apply), {@code applyAgain} runs and
+     * update_engine continues from its own checkpoint.
+     */
+    public void resumeUpdate(UpdateCallback callback, Runnable applyAgain) {
+        mainHandler.post(() -> {
+            final AtomicBoolean decided = new AtomicBoolean();
+            // The payload size is not known here, so progress comes without throughput
+            final ApplyProgressTracker tracker = newTracker(-1, callback);
+            updateEngine.bind(new UpdateEngineListener() {
+                @Override
+                public void onStatusUpdate(int status, float percent) {
+                    Log.d(TAG, "Resumed update status: " + status + ", progress: " + percent);
+                    if (status == UpdateEngine.UpdateStatusConstants.IDLE && decided.compareAndSet(false, true)) {
+                        Log.i(TAG, "update_engine is idle, applying the payload again");
+                        updateEngine.unbind();
+                        applyAgain.run();
+                    } else if (status == UpdateEngine.UpdateStatusConstants.UPDATED_NEED_REBOOT
+                            && decided.compareAndSet(false, true)) {
+                        Log.i(TAG, "✓ update_engine already applied the payload");
+                        updateEngine.unbind();
+                        pipeline.advance(UpdatePipeline.Stage.APPLIED_PENDING_REBOOT);
+                        store.applied();
+                        mainHandler.post(callback::onSuccess);
+                    } else {
+                        decided.set(true);
+                        tracker.onStatusUpdate(status, percent);
+                    }
+                }
+                
+                @Override
+                public void onPayloadApplicationComplete(int errorCode) {
+                    tracker.onPayloadApplicationComplete(errorCode);
+                    finishApply(errorCode, tracker, callback);
+                }
+            });
+        });
+    }
+    
+    private ApplyProgressTracker newTracker(long payloadSize, UpdateCallback callback) {
+        return new ApplyProgressTracker(payloadSize, ApplyTimings.getInstance(), mainHandler::post, progress -> {
+            store.applyProgress(progress);
+            callback.onProgress(progress);
+        });
+    }
+    
+    private void finishApply(int errorCode, ApplyProgressTracker tracker, UpdateCallback callback) {
+        Log.i(TAG, "Update complete with error code: " + errorCode);
+        // Which phase dominates differs per SKU; the device name lets logs from a fleet be grouped
+        Log.i(TAG, "📊 Apply phases on " + BuildProperties.get().device + ": " + tracker.summary());
+        if (errorCode == UpdateEngine.ErrorCodeConstants.SUCCESS) {
+            pipeline.advance(UpdatePipeline.Stage.APPLIED_PENDING_REBOOT);
+            store.applied();
+        } else {
+            store.failed("Update failed with error code: " + errorCode);
+        }
+        mainHandler.post(() -> {
+            if (errorCode == UpdateEngine.ErrorCodeConstants.SUCCESS) {
+                callback.onSuccess();
+            } else {
+                callback.onError("Update failed with error code: " + errorCode);
+            }
+        });
+    }
+    
+    private void applyUpdate(UpdateParser.ParsedUpdate result, boolean streaming, UpdateCallback callback) {
         mainHandler.post(() -> {
             try {
                 wakeLock.acquire();
                 
-                UpdateEngineCallback engineCallback = new UpdateEngineCallback() {
+                // update_engine reports each phase as a fraction; the tracker weighs the phases
+                // into one percentage with an ETA and delivers coalesced events on the main thread
+                final ApplyProgressTracker tracker = newTracker(result.mSize, callback);
+                
+                UpdateEngineListener engineCallback = new UpdateEngineListener() {
                     @Override
                     public void onStatusUpdate(int status, float percent) {
                         Log.d(TAG, "Update status: " + status + ", progress: " + percent);
-                        if (status == UpdateEngine.UpdateStatusConstants.DOWNLOADING) {
-                            mainHandler.post(() -> callback.onProgress((int) (percent * 100)));
-                        }
+                        tracker.onStatusUpdate(status, percent);
                     }
                     
                     @Override
                     public void onPayloadApplicationComplete(int errorCode) {
-                        Log.i(TAG, "Update complete with error code: " + errorCode);
-                        mainHandler.post(() -> {
-                            if (errorCode == UpdateEngine.ErrorCodeConstants.SUCCESS) {
-                                callback.onSuccess();
-                            } else {
-                                callback.onError("Update failed with error code: " + errorCode);
-                            }
-                        });
+                        tracker.onPayloadApplicationComplete(errorCode);
+                        finishApply(errorCode, tracker, callback);
                         
                         if (wakeLock.isHeld()) {
                             wakeLock.release();
@@ -77,6 +257,10 @@ public class UpdateManager {
                     }
                 };
                 
+                if (pipeline.current().stage != UpdatePipeline.Stage.APPLYING) {
+                    pipeline.advance(UpdatePipeline.Stage.APPLYING, streaming);
+                }
+                store.applyProgress(null);
                 updateEngine.bind(engineCallback);
                 updateEngine.applyPayload(result.mUrl, result.mOffset, result.mSize, result.mProps);
                 
@@ -84,6 +268,7 @@ public class UpdateManager {
                 
             } catch (Exception e) {
                 Log.e(TAG, "Failed to apply update", e);
+                store.failed("Failed to apply update: " + e.getMessage());
                 callback.onError("Failed to apply update: " + e.getMessage());
                 if (wakeLock.isHeld()) {
                     wakeLock.release();
@@ -93,7 +278,8 @@ public class UpdateManager {
     }
     
     public interface UpdateCallback {
-        void onProgress(int progress);
+        /** Rate-limited progress, delivered on the main thread. */
+        void onProgress(ProgressPublisher.Progress progress);
         void onSuccess();
         void onError(String error);
     }
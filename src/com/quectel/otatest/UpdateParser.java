@@ -23,14 +23,16 @@ import android.util.Log;
 import com.android.internal.util.Preconditions;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
-import java.util.Enumeration;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Locale;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.Map;
 
 /** Parse an A/B update zip file. */
 class UpdateParser {
@@ -38,57 +40,115 @@ class UpdateParser {
     private static final String TAG = "UpdateLayoutFragment";
     private static final String PAYLOAD_BIN_FILE = "payload.bin";
     private static final String PAYLOAD_PROPERTIES = "payload_properties.txt";
+    private static final String METADATA_FILE = "META-INF/com/android/metadata";
     private static final String FILE_URL_PREFIX = "file://";
-    private static final int ZIP_FILE_HEADER = 30;
+    private static final String HTTP_URL_PREFIX = "http://";
+    private static final String HTTPS_URL_PREFIX = "https://";
 
     private UpdateParser() {
     }
 
     /**
      * Parse a zip file containing a system update and return a non null ParsedUpdate.
+     *
+     * <p>Only the end of central directory, the central directory and the local file headers of
+     * the two entries of interest are read, so the cost does not depend on the package size and
+     * the payload offset is exact even with zip64, data descriptors or local extra fields that
+     * differ from their central copies.
+     *
+     * <p>A package without payload.bin or payload_properties.txt, or with a compressed
+     * payload.bin, yields a ParsedUpdate whose {@link ParsedUpdate#isValid()} is false. An archive
+     * or payload header that cannot be read throws IOException.
      */
     @Nullable
     static ParsedUpdate parse(@NonNull File file) throws IOException {
         Preconditions.checkNotNull(file);
 
-        long payloadOffset = 0;
-        long payloadSize = 0;
-        boolean payloadFound = false;
-        String[] props = null;
-
-        try (ZipFile zipFile = new ZipFile(file)) {
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                long fileSize = entry.getCompressedSize();
-                if (!payloadFound) {
-                    payloadOffset += ZIP_FILE_HEADER + entry.getName().length();
-                    if (entry.getExtra() != null) {
-                        payloadOffset += entry.getExtra().length;
-                    }
-                }
+        try (FileChannelSource source = new FileChannelSource(file)) {
+            return parse(source, FILE_URL_PREFIX + file.getAbsolutePath());
+        }
+    }
 
-                if (entry.isDirectory()) {
-                    continue;
-                } else if (entry.getName().equals(PAYLOAD_BIN_FILE)) {
-                    payloadSize = fileSize;
-                    payloadFound = true;
-                } else if (entry.getName().equals(PAYLOAD_PROPERTIES)) {
-                    try (BufferedReader buffer = new BufferedReader(
-                            new InputStreamReader(zipFile.getInputStream(entry)))) {
-                        props = buffer.lines().toArray(String[]::new);
-                    }
-                }
-                if (!payloadFound) {
-                    payloadOffset += fileSize;
-                }
+    /** Decode the payload manifest of a local package whose payload location is already known. */
+    @NonNull
+    static PayloadManifest parseManifest(@NonNull File file, long payloadOffset, long payloadSize)
+            throws IOException {
+        Preconditions.checkNotNull(file);
+
+        try (FileChannelSource source = new FileChannelSource(file)) {
+            return PayloadManifest.read(source, payloadOffset, payloadSize);
+        }
+    }
+
+    /**
+     * Parse a remote zip file served with HTTP Range support, without downloading it. Only the
+     * end of central directory, the central directory and the local file headers of payload.bin
+     * and payload_properties.txt are fetched; update_engine can then stream the payload itself.
+     */
+    @Nullable
+    static ParsedUpdate parseRemote(@NonNull String url) throws IOException {
+        Preconditions.checkNotNull(url);
+        if (!isRemote(url)) {
+            throw new IOException("Not an http(s) URL: " + url);
+        }
 
-                if (Log.isLoggable(TAG, Log.DEBUG)) {
-                    Log.d(TAG, String.format("Entry %s", entry.getName()));
+        HttpRangeSource source = new HttpRangeSource(url);
+        ParsedUpdate update = parse(source, url);
+        Log.d(TAG, String.format(Locale.US, "Parsed remote update with %d range requests",
+                source.getRequestCount()));
+        return update;
+    }
+
+    /** Whether update_engine can fetch the given URL itself. */
+    static boolean isRemote(@Nullable String url) {
+        return url != null && (url.startsWith(HTTP_URL_PREFIX) || url.startsWith(HTTPS_URL_PREFIX));
+    }
+
+    private static ParsedUpdate parse(ZipLayout.Source source, String url) throws IOException {
+        Map<String, ZipLayout.Entry> entries = ZipLayout.readCentralDirectory(source);
+        ZipLayout.Entry payload = entries.get(PAYLOAD_BIN_FILE);
+        ZipLayout.Entry properties = entries.get(PAYLOAD_PROPERTIES);
+        if (payload == null || properties == null) {
+            Log.w(TAG, "Package has no " + (payload == null ? PAYLOAD_BIN_FILE : PAYLOAD_PROPERTIES));
+            return new ParsedUpdate(url, -1, 0, null);
+        }
+        if (!payload.isStored()) {
+            // update_engine reads the payload at a raw offset, so it must not be compressed
+            Log.w(TAG, PAYLOAD_BIN_FILE + " is compressed");
+            return new ParsedUpdate(url, -1, 0, null);
+        }
+
+        long payloadOffset = ZipLayout.dataOffset(source, payload);
+        String[] props = readLines(source, properties);
+        PayloadManifest manifest = PayloadManifest.read(source, payloadOffset, payload.compressedSize);
+
+        Map<String, String> metadata = new HashMap<>();
+        ZipLayout.Entry metadataEntry = entries.get(METADATA_FILE);
+        if (metadataEntry != null) {
+            for (String line : readLines(source, metadataEntry)) {
+                int split = line.indexOf('=');
+                if (split > 0) {
+                    metadata.put(line.substring(0, split), line.substring(split + 1));
                 }
             }
         }
-        return new ParsedUpdate(file, payloadOffset, payloadSize, props);
+
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, String.format(Locale.US, "%d entries, %s at %d: %s", entries.size(),
+                    PAYLOAD_BIN_FILE, payloadOffset, manifest));
+            for (PayloadManifest.Partition partition : manifest.partitions) {
+                Log.d(TAG, "  " + partition);
+            }
+        }
+        return new ParsedUpdate(url, payloadOffset, payload.compressedSize, props, manifest, metadata);
+    }
+
+    private static String[] readLines(ZipLayout.Source source, ZipLayout.Entry entry) throws IOException {
+        try (BufferedReader buffer = new BufferedReader(new InputStreamReader(
+                new ByteArrayInputStream(ZipLayout.readEntry(source, entry)),
+                StandardCharsets.UTF_8))) {
+            return buffer.lines().toArray(String[]::new);
+        }
     }
 
     /** Information parsed from an update file. */
@@ -97,12 +157,24 @@ class UpdateParser {
         final long mOffset;
         final long mSize;
         final String[] mProps;
+        /** Decoded payload.bin header and manifest, or null if it was not read. */
+        @Nullable
+        final PayloadManifest mManifest;
+        /** Key/value pairs of META-INF/com/android/metadata, empty if the package has none. */
+        final Map<String, String> mMetadata;
+
+        ParsedUpdate(String url, long offset, long size, String[] props) {
+            this(url, offset, size, props, null, Collections.emptyMap());
+        }
 
-        ParsedUpdate(File file, long offset, long size, String[] props) {
-            mUrl = FILE_URL_PREFIX + file.getAbsolutePath();
+        ParsedUpdate(String url, long offset, long size, String[] props,
+                @Nullable PayloadManifest manifest, Map<String, String> metadata) {
+            mUrl = url;
             mOffset = offset;
             mSize = size;
             mProps = props;
+            mManifest = manifest;
+            mMetadata = Collections.unmodifiableMap(metadata);
         }
 
         /** Verify the update information is correct. */
@@ -113,8 +185,8 @@ class UpdateParser {
         @Override
         public String toString() {
             return String.format(Locale.getDefault(),
-                    "ParsedUpdate: URL=%s, offset=%d, size=%s, props=%s",
-                    mUrl, mOffset, mSize, Arrays.toString(mProps));
+                    "ParsedUpdate: URL=%s, offset=%d, size=%s, props=%s, manifest=%s",
+                    mUrl, mOffset, mSize, Arrays.toString(mProps), mManifest);
         }
     }
 }
@@ -0,0 +1,297 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Durable state machine of one OTA installation:
+ * CHECKED → DOWNLOADING → DOWNLOADED → VERIFIED → STAGED → APPLYING → APPLIED_PENDING_REBOOT.
+ *
+ * Every transition is appended to a small journal and fsynced before the step it announces runs,
+ * so after a crash the last complete record tells which steps are durably done. A torn record at
+ * the end fails its CRC and is ignored. Once the journal holds {@link #COMPACT_AFTER} records it is
+ * rewritten to just the current one through an fsynced temp file and an atomic rename.
+ *
+ * Stages only move forward; {@link #restart} and {@link #reset} are the only ways back. Entering a
+ * stage it is already in counts as another attempt at that stage, so a step that keeps failing is
+ * given up after {@link #MAX_ATTEMPTS} instead of being resumed forever.
+ */
+public final class UpdatePipeline {
+    private static final String TAG = "UpdatePipeline";
+    private static final String JOURNAL_PATH = "/data/ota_package/.pipeline.journal";
+    private static final int COMPACT_AFTER = 32;
+    static final int MAX_ATTEMPTS = 3;
+    
+    private static UpdatePipeline instance;
+    
+    public enum Stage {
+        IDLE,
+        CHECKED,
+        DOWNLOADING,
+        DOWNLOADED,
+        /** The package matched the SHA-256 the server announced; skipped when it sent none. */
+        VERIFIED,
+        STAGED,
+        APPLYING,
+        APPLIED_PENDING_REBOOT
+    }
+    
+    /** One journal record: the stage reached and what is being installed. */
+    public static final class Record {
+        public final long sequence;
+        public final Stage stage;
+        /** How many times the current stage was entered. */
+        public final int attempts;
+        /** Whether update_engine streams the payload instead of installing a downloaded package. */
+        public final boolean streaming;
+        /** Build the device ran when the installation started. */
+        public final String sourceBuildId;
+        public final String targetBuildId;
+        public final String packageUrl;
+        public final String sha256;
+        
+        Record(long sequence, Stage stage, int attempts, boolean streaming, String sourceBuildId,
+                String targetBuildId, String packageUrl, String sha256) {
+            this.sequence = sequence;
+            this.stage = stage;
+            this.attempts = attempts;
+            this.streaming = streaming;
+            this.sourceBuildId = sourceBuildId;
+            this.targetBuildId = targetBuildId;
+            this.packageUrl = packageUrl;
+            this.sha256 = sha256;
+        }
+        
+        /** Whether there is work that can continue without the user: a download or install under way. */
+        public boolean isResumable() {
+            return stage.compareTo(Stage.DOWNLOADING) >= 0 && stage.compareTo(Stage.APPLYING) <= 0;
+        }
+        
+        @Override
+        public String toString() {
+            return "#" + sequence + " " + stage + " (attempt " + attempts + ")" + (streaming ? " streaming" : "")
+                    + " " + sourceBuildId + " -> " + targetBuildId;
+        }
+    }
+    
+    private final File journalFile;
+    private final AtomicBoolean active = new AtomicBoolean();
+    private Record current;
+    private int journalRecords;
+    
+    UpdatePipeline(File journalFile) {
+        this.journalFile = journalFile;
+        this.current = load();
+        Log.i(TAG, "Pipeline state: " + current);
+    }
+    
+    public static synchronized UpdatePipeline getInstance() {
+        if (instance == null) {
+            instance = new UpdatePipeline(new File(JOURNAL_PATH));
+        }
+        return instance;
+    }
+    
+    public synchronized Record current() {
+        return current;
+    }
+    
+    /**
+     * Claim the right to drive the pipeline in this process, so the activity and a resume after
+     * restart do not run the same steps at once.
+     * @return false if someone else is driving it
+     */
+    boolean claim() {
+        return active.compareAndSet(false, true);
+    }
+    
+    void release() {
+        active.set(false);
+    }
+    
+    /**
+     * Record that the check found {@code response}. An installation already under way for the same
+     * package is kept; anything else starts over from CHECKED.
+     */
+    synchronized void checked(OTAApiClient.UpdateResponse response, String sourceBuildId) {
+        checked(response.buildId, response.getFullPackageUrl(), response.sha256, sourceBuildId);
+    }
+    
+    synchronized void checked(String targetBuildId, String packageUrl, String sha256, String sourceBuildId) {
+        if (current.stage != Stage.IDLE && equals(current.targetBuildId, targetBuildId)
+                && equals(current.packageUrl, packageUrl) && equals(current.sha256, sha256)) {
+            return;
+        }
+        append(new Record(current.sequence + 1, Stage.CHECKED, 1, false, sourceBuildId, targetBuildId,
+                packageUrl, sha256));
+    }
+    
+    /**
+     * Move to {@code stage}, or count another attempt if the pipeline is already there. A move
+     * backwards, or out of IDLE without a check, is a bookkeeping error: it is logged and not
+     * recorded, and the step itself is not held up.
+     */
+    synchronized Record advance(Stage stage) {
+        return advance(stage, current.streaming);
+    }
+    
+    synchronized Record advance(Stage stage, boolean streaming) {
+        if (current.stage == Stage.IDLE || stage.compareTo(current.stage) < 0 || stage == Stage.IDLE) {
+            Log.w(TAG, "⚠ Ignoring transition from " + current.stage + " to " + stage);
+            return current;
+        }
+        int attempts = stage == current.stage ? current.attempts + 1 : 1;
+        return append(new Record(current.sequence + 1, stage, attempts, streaming, current.sourceBuildId,
+                current.targetBuildId, current.packageUrl, current.sha256));
+    }
+    
+    /** Go back to CHECKED for the same target, e.g. after the package failed verification. */
+    synchronized void restart(String reason) {
+        if (current.stage == Stage.IDLE) {
+            return;
+        }
+        Log.w(TAG, "Restarting installation of " + current.targetBuildId + ": " + reason);
+        append(new Record(current.sequence + 1, Stage.CHECKED, 1, false, current.sourceBuildId,
+                current.targetBuildId, current.packageUrl, current.sha256));
+    }
+    
+    /** Forget the installation. */
+    synchronized void reset(String reason) {
+        if (current.stage == Stage.IDLE) {
+            return;
+        }
+        Log.i(TAG, "Resetting pipeline at " + current + ": " + reason);
+        append(new Record(current.sequence + 1, Stage.IDLE, 1, false, null, null, null, null));
+    }
+    
+    /**
+     * Settle the pipeline after boot: once the device runs the target build the installation is
+     * complete and the pipeline goes back to IDLE. Still running the source build after the update
+     * was applied means the slot switch was rolled back, so the installation starts over.
+     */
+    synchronized void onBoot(String runningBuildId) {
+        if (current.stage != Stage.IDLE && current.targetBuildId != null
+                && current.targetBuildId.equals(runningBuildId)) {
+            Log.i(TAG, "✅ Running target build " + runningBuildId + ", installation complete");
+            reset("installed");
+        } else if (current.stage == Stage.APPLIED_PENDING_REBOOT && runningBuildId != null
+                && runningBuildId.equals(current.sourceBuildId)) {
+            restart("rebooted into source build " + runningBuildId + " after the update was applied");
+        }
+    }
+    
+    private Record append(Record record) {
+        String line = encode(record);
+        try {
+            if (journalRecords >= COMPACT_AFTER) {
+                // Each line carries its own checksum, so the compacted file needs no trailing one
+                AtomicStateFile.replace(journalFile, line);
+                journalRecords = 1;
+            } else {
+                File parent = journalFile.getParentFile();
+                if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                    throw new IOException("Cannot create " + parent);
+                }
+                try (FileOutputStream output = new FileOutputStream(journalFile, true)) {
+                    output.write(line.getBytes(StandardCharsets.UTF_8));
+                    output.getFD().sync();
+                }
+                journalRecords++;
+            }
+        } catch (IOException e) {
+            // The step still runs; only resuming it after a crash is lost
+            Log.e(TAG, "Failed to journal " + record + ": " + e.getMessage(), e);
+        }
+        current = record;
+        Log.i(TAG, "Pipeline: " + record);
+        return record;
+    }
+    
+    private Record load() {
+        Record last = new Record(0, Stage.IDLE, 1, false, null, null, null, null);
+        if (!journalFile.exists()) {
+            return last;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(journalFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                Record record = decode(line);
+                if (record == null) {
+                    // A torn append can only be the last line; nothing after it was committed.
+                    // Rewrite the journal with the next record so it does not follow the damage.
+                    Log.w(TAG, "Ignoring damaged journal record after " + last);
+                    journalRecords = COMPACT_AFTER;
+                    break;
+                }
+                last = record;
+                journalRecords++;
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read pipeline journal: " + e.getMessage());
+        }
+        return last;
+    }
+    
+    private static String encode(Record record) {
+        String body = record.sequence + "\t" + record.stage.name() + "\t" + record.attempts + "\t"
+                + (record.streaming ? 1 : 0) + "\t" + escape(record.sourceBuildId) + "\t"
+                + escape(record.targetBuildId) + "\t" + escape(record.packageUrl) + "\t" + escape(record.sha256);
+        return body + "\t" + AtomicStateFile.checksum(body) + "\n";
+    }
+    
+    private static Record decode(String line) {
+        int split = line.lastIndexOf('\t');
+        if (split < 0 || !line.substring(split + 1).equals(AtomicStateFile.checksum(line.substring(0, split)))) {
+            return null;
+        }
+        String[] fields = line.substring(0, split).split("\t", -1);
+        if (fields.length != 8) {
+            return null;
+        }
+        try {
+            return new Record(Long.parseLong(fields[0]), Stage.valueOf(fields[1]), Integer.parseInt(fields[2]),
+                    "1".equals(fields[3]), unescape(fields[4]), unescape(fields[5]), unescape(fields[6]),
+                    unescape(fields[7]));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+    
+    /** Null is written as a lone backslash-zero; tabs, line breaks and backslashes are escaped. */
+    private static String escape(String value) {
+        if (value == null) {
+            return "\\0";
+        }
+        return value.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n").replace("\r", "\\r");
+    }
+    
+    private static String unescape(String value) {
+        if (value.equals("\\0")) {
+            return null;
+        }
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                char next = value.charAt(++i);
+                builder.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.toString();
+    }
+    
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,218 @@
+package com.quectel.otatest;
+
+import android.util.Log;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.UnaryOperator;
+
+/**
+ * The single source of truth for where the update flow stands: the last check, download
+ * progress, verification and apply status.
+ *
+ * Every change publishes a new immutable {@link State} through an atomic reference, so readers
+ * never block and never see half of an update; {@link #getState()} is a volatile read and cheap
+ * enough for UI refreshes. Listeners are notified on the executor they registered with. As with
+ * {@link ProgressPublisher}, at most one delivery per listener is queued and it carries the latest
+ * state, so a slow listener skips intermediate states rather than falling behind.
+ */
+public final class UpdateStateStore {
+    private static final String TAG = "UpdateStateStore";
+    private static final UpdateStateStore instance = new UpdateStateStore();
+    
+    public enum Phase {
+        IDLE,
+        CHECKING,
+        UPDATE_AVAILABLE,
+        UP_TO_DATE,
+        CHECK_FAILED,
+        DOWNLOADING,
+        DOWNLOADED,
+        VERIFYING,
+        APPLYING,
+        APPLIED,
+        FAILED
+    }
+    
+    /** An immutable snapshot of the update flow. */
+    public static final class State {
+        /** Increases with every change, so listeners can tell which of two states is newer. */
+        public final long version;
+        public final Phase phase;
+        /** Build the last completed check was made for, or null if none completed. */
+        public final String checkBuildId;
+        /** Answer of the last completed check; null if there was none or it failed. */
+        public final OTAApiClient.UpdateResponse checkResponse;
+        /** Wall-clock time the last check completed, 0 if none did. */
+        public final long checkedAt;
+        /** Download or apply progress of the current phase, or null. */
+        public final ProgressPublisher.Progress progress;
+        /** Why the last check or the update failed, or null. */
+        public final String error;
+        
+        State(long version, Phase phase, String checkBuildId, OTAApiClient.UpdateResponse checkResponse,
+                long checkedAt, ProgressPublisher.Progress progress, String error) {
+            this.version = version;
+            this.phase = phase;
+            this.checkBuildId = checkBuildId;
+            this.checkResponse = checkResponse;
+            this.checkedAt = checkedAt;
+            this.progress = progress;
+            this.error = error;
+        }
+        
+        State withPhase(Phase phase, ProgressPublisher.Progress progress, String error) {
+            return new State(version + 1, phase, checkBuildId, checkResponse, checkedAt, progress, error);
+        }
+        
+        State withCheck(Phase phase, String buildId, OTAApiClient.UpdateResponse response, long completedAt,
+                String error) {
+            return new State(version + 1, phase, buildId, response, completedAt, null, error);
+        }
+        
+        /** Whether an update was found and not installed yet. */
+        public boolean isUpdatePending() {
+            return checkResponse != null && checkResponse.isUpdateAvailable() && phase != Phase.APPLIED;
+        }
+        
+        @Override
+        public String toString() {
+            return "State{v" + version + " " + phase + ", check=" + (checkResponse != null ? checkResponse.status : "none")
+                    + (progress != null ? ", progress=" + progress.percent + "%" : "")
+                    + (error != null ? ", error=" + error : "") + "}";
+        }
+    }
+    
+    public interface Listener {
+        void onStateChanged(State state);
+    }
+    
+    private final AtomicReference<State> state = new AtomicReference<>(
+            new State(0, Phase.IDLE, null, null, 0, null, null));
+    private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+    
+    UpdateStateStore() {
+    }
+    
+    public static UpdateStateStore getInstance() {
+        return instance;
+    }
+    
+    /** The current state. Never blocks. */
+    public State getState() {
+        return state.get();
+    }
+    
+    /**
+     * Register {@code listener} to be called on {@code executor} after each change. It is called
+     * once right away with the current state.
+     */
+    public void addListener(Listener listener, Executor executor) {
+        Registration registration = new Registration(listener, executor);
+        registrations.add(registration);
+        registration.offer(state.get());
+    }
+    
+    public void removeListener(Listener listener) {
+        for (Registration registration : registrations) {
+            if (registration.listener == listener) {
+                registration.removed = true;
+                registrations.remove(registration);
+            }
+        }
+    }
+    
+    void checkStarted() {
+        update(current -> current.withPhase(Phase.CHECKING, null, null));
+    }
+    
+    void checkCompleted(String buildId, OTAApiClient.UpdateResponse response, OTAApiException failure) {
+        final long now = System.currentTimeMillis();
+        if (failure != null) {
+            update(current -> current.withCheck(Phase.CHECK_FAILED, buildId, null, now, failure.getUserMessage()));
+            return;
+        }
+        Phase phase = response.isUpdateAvailable() ? Phase.UPDATE_AVAILABLE
+                : response.isUpToDate() ? Phase.UP_TO_DATE : Phase.CHECK_FAILED;
+        String error = response.isError() ? response.message : null;
+        update(current -> current.withCheck(phase, buildId, response, now, error));
+    }
+    
+    /** Forget the last check, e.g. after the build changed. */
+    void clearCheck() {
+        update(current -> current.withCheck(Phase.IDLE, null, null, 0, null));
+    }
+    
+    void downloadProgress(ProgressPublisher.Progress progress) {
+        update(current -> current.withPhase(Phase.DOWNLOADING, progress, null));
+    }
+    
+    void downloadCompleted() {
+        update(current -> current.withPhase(Phase.DOWNLOADED, null, null));
+    }
+    
+    void verifying() {
+        update(current -> current.withPhase(Phase.VERIFYING, null, null));
+    }
+    
+    void applyProgress(ProgressPublisher.Progress progress) {
+        update(current -> current.withPhase(Phase.APPLYING, progress, null));
+    }
+    
+    void applied() {
+        update(current -> current.withPhase(Phase.APPLIED, null, null));
+    }
+    
+    void failed(String error) {
+        update(current -> current.withPhase(Phase.FAILED, null, error));
+    }
+    
+    /** Publish the state derived from the current one; {@code change} may run more than once. */
+    private State update(UnaryOperator<State> change) {
+        State updated = state.updateAndGet(change);
+        if (updated.phase != Phase.DOWNLOADING && updated.phase != Phase.APPLYING) {
+            Log.d(TAG, "State changed: " + updated);
+        }
+        for (Registration registration : registrations) {
+            registration.offer(updated);
+        }
+        return updated;
+    }
+    
+    private static class Registration {
+        final Listener listener;
+        final Executor executor;
+        final AtomicReference<State> pending = new AtomicReference<>();
+        private long deliveredVersion = -1;
+        volatile boolean removed;
+        
+        Registration(Listener listener, Executor executor) {
+            this.listener = listener;
+            this.executor = executor;
+        }
+        
+        void offer(State offered) {
+            // Concurrent updates may offer states out of order; keep whichever is newer
+            State previous = pending.getAndUpdate(
+                    queued -> queued == null || queued.version < offered.version ? offered : queued);
+            if (previous == null) {
+                executor.execute(this::deliver);
+            }
+        }
+        
+        /** Serialized, so a listener on a thread pool still sees states one at a time and in order. */
+        private synchronized void deliver() {
+            State latest = pending.getAndSet(null);
+            if (latest == null || removed || latest.version <= deliveredVersion) {
+                return;
+            }
+            deliveredVersion = latest.version;
+            try {
+                listener.onStateChanged(latest);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Update state listener failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,240 @@
+package com.quectel.otatest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Reads the layout of a zip archive without walking its entries: the end-of-central-directory
+ * record (and its zip64 variant) is located at the end of the archive, the central directory is
+ * read in one piece, and the local file header of an entry is only read when its exact data
+ * offset is needed. All access goes through a {@link Source}, so the archive may be a local file
+ * or a remote URL read with HTTP Range requests.
+ */
+class ZipLayout {
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xffff;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EOCD_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_EOCD_SIZE = 56;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final long ZIP64_MAGIC = 0xffffffffL;
+    
+    /** Maximum size of the end-of-central-directory region: the record plus the longest comment. */
+    static final int MAX_TAIL_SIZE = EOCD_SIZE + MAX_COMMENT_SIZE + ZIP64_LOCATOR_SIZE;
+    /** Tail read first; enough for the signature comment of a signed OTA package. */
+    private static final int INITIAL_TAIL_SIZE = 16 * 1024;
+    
+    /** Random access to the bytes of an archive. */
+    interface Source {
+        long size() throws IOException;
+        
+        /** Read exactly {@code length} bytes starting at {@code offset}. */
+        byte[] read(long offset, int length) throws IOException;
+    }
+    
+    /** A central directory entry. */
+    static class Entry {
+        final String name;
+        final int method;
+        final long compressedSize;
+        final long uncompressedSize;
+        final long localHeaderOffset;
+        
+        Entry(String name, int method, long compressedSize, long uncompressedSize, long localHeaderOffset) {
+            this.name = name;
+            this.method = method;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+            this.localHeaderOffset = localHeaderOffset;
+        }
+        
+        boolean isStored() {
+            return method == ZipEntry.STORED;
+        }
+    }
+    
+    private ZipLayout() {
+    }
+    
+    /** Read all central directory entries, keyed by name in archive order. */
+    static Map<String, Entry> readCentralDirectory(Source source) throws IOException {
+        long size = source.size();
+        int tailSize = (int) Math.min(size, INITIAL_TAIL_SIZE);
+        long tailOffset = size - tailSize;
+        ByteBuffer tail = order(source.read(tailOffset, tailSize));
+        int eocd = findEndOfCentralDirectory(tail);
+        if (eocd < 0 && size > tailSize) {
+            // Unusually long archive comment, retry with the largest possible tail
+            tailSize = (int) Math.min(size, MAX_TAIL_SIZE);
+            tailOffset = size - tailSize;
+            tail = order(source.read(tailOffset, tailSize));
+            eocd = findEndOfCentralDirectory(tail);
+        }
+        if (eocd < 0) {
+            throw new IOException("End of central directory not found");
+        }
+        
+        long entryCount = tail.getShort(eocd + 10) & 0xffff;
+        long directorySize = tail.getInt(eocd + 12) & ZIP64_MAGIC;
+        long directoryOffset = tail.getInt(eocd + 16) & ZIP64_MAGIC;
+        
+        int locator = eocd - ZIP64_LOCATOR_SIZE;
+        if (locator >= 0 && tail.getInt(locator) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64EocdOffset = tail.getLong(locator + 8);
+            ByteBuffer zip64 = order(source.read(zip64EocdOffset, ZIP64_EOCD_SIZE));
+            if (zip64.getInt(0) != ZIP64_EOCD_SIGNATURE) {
+                throw new IOException("Bad zip64 end of central directory at " + zip64EocdOffset);
+            }
+            entryCount = zip64.getLong(32);
+            directorySize = zip64.getLong(40);
+            directoryOffset = zip64.getLong(48);
+        }
+        
+        if (directoryOffset + directorySize > size || directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Central directory out of bounds: offset " + directoryOffset
+                    + ", size " + directorySize);
+        }
+        ByteBuffer directory;
+        if (directoryOffset >= tailOffset) {
+            // Usually the whole central directory already arrived with the tail
+            directory = order(ByteBuffer.wrap(tail.array(), (int) (directoryOffset - tailOffset),
+                    (int) directorySize).slice());
+        } else {
+            directory = order(source.read(directoryOffset, (int) directorySize));
+        }
+        
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        int position = 0;
+        for (long i = 0; i < entryCount; i++) {
+            if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new IOException("Bad central directory header at entry " + i);
+            }
+            int method = directory.getShort(position + 10) & 0xffff;
+            long compressedSize = directory.getInt(position + 20) & ZIP64_MAGIC;
+            long uncompressedSize = directory.getInt(position + 24) & ZIP64_MAGIC;
+            int nameLength = directory.getShort(position + 28) & 0xffff;
+            int extraLength = directory.getShort(position + 30) & 0xffff;
+            int commentLength = directory.getShort(position + 32) & 0xffff;
+            long localHeaderOffset = directory.getInt(position + 42) & ZIP64_MAGIC;
+            
+            byte[] nameBytes = new byte[nameLength];
+            ByteBuffer nameView = directory.duplicate();
+            nameView.position(position + CENTRAL_HEADER_SIZE);
+            nameView.get(nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+            
+            // Sizes and offsets that overflow 32 bits live in the zip64 extra field, in this order
+            int extra = position + CENTRAL_HEADER_SIZE + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = directory.getShort(extra) & 0xffff;
+                int length = directory.getShort(extra + 2) & 0xffff;
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (uncompressedSize == ZIP64_MAGIC) {
+                        uncompressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = directory.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC) {
+                        localHeaderOffset = directory.getLong(field);
+                    }
+                }
+                extra += 4 + length;
+            }
+            
+            entries.put(name, new Entry(name, method, compressedSize, uncompressedSize, localHeaderOffset));
+            position = extraEnd + commentLength;
+        }
+        return entries;
+    }
+    
+    /** Position of the end-of-central-directory record whose comment runs to the end of the tail. */
+    private static int findEndOfCentralDirectory(ByteBuffer tail) {
+        int limit = tail.limit();
+        for (int i = limit - EOCD_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == EOCD_SIGNATURE
+                    && i + EOCD_SIZE + (tail.getShort(i + 20) & 0xffff) == limit) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
+    /**
+     * Exact offset of the entry's data, taken from its local file header. The local extra field
+     * may differ from the central one, so it cannot be derived from the central directory alone.
+     */
+    static long dataOffset(Source source, Entry entry) throws IOException {
+        ByteBuffer header = order(source.read(entry.localHeaderOffset, LOCAL_HEADER_SIZE));
+        return dataOffset(header, 0, entry);
+    }
+    
+    /** Read and, if needed, inflate the data of a small entry. */
+    static byte[] readEntry(Source source, Entry entry) throws IOException {
+        if (entry.compressedSize > Integer.MAX_VALUE || entry.uncompressedSize > Integer.MAX_VALUE) {
+            throw new IOException("Entry too large to read into memory: " + entry.name);
+        }
+        long offset = dataOffset(source, entry);
+        byte[] data = source.read(offset, (int) entry.compressedSize);
+        if (entry.isStored()) {
+            return data;
+        }
+        if (entry.method != ZipEntry.DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+        
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            ByteArrayOutputStream output = new ByteArrayOutputStream((int) entry.uncompressedSize);
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int count = inflater.inflate(buffer);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Truncated deflate data for " + entry.name);
+                }
+                output.write(buffer, 0, count);
+            }
+            return output.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt deflate data for " + entry.name, e);
+        } finally {
+            inflater.end();
+        }
+    }
+    
+    private static long dataOffset(ByteBuffer header, int position, Entry entry) throws IOException {
+        if (header.getInt(position) != LOCAL_HEADER_SIGNATURE) {
+            throw new IOException("Bad local file header for " + entry.name + " at " + entry.localHeaderOffset);
+        }
+        int nameLength = header.getShort(position + 26) & 0xffff;
+        int extraLength = header.getShort(position + 28) & 0xffff;
+        return entry.localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+    
+    private static ByteBuffer order(byte[] data) {
+        return order(ByteBuffer.wrap(data));
+    }
+    
+    private static ByteBuffer order(ByteBuffer buffer) {
+        return buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
\ No newline at end of file